@@ -0,0 +1,154 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU side of one wallpaper frame: growth generation, gathering of visible
+ * splines and knots with their bounds, and spline tessellation. Run with
+ * -prof gc to get allocation rate, see benchmark/README.md.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowerSimulationBenchmark {
+
+	private static final int SURFACE_WIDTH = 1080;
+	private static final int SURFACE_HEIGHT = 1920;
+	private static final long SEED = 0x5eedL;
+	private static final long FRAME_MILLIS = 16;
+	/* Longer than any root duration, every step generates a root */
+	private static final long ROOT_MILLIS = 1000;
+	/* Long enough for all root rings to fill up */
+	private static final long WARMUP_MILLIS = 30000;
+
+	@Param({ "1", "2", "8" })
+	public int flowerCount;
+
+	@Param({ "0", "0.5", "1" })
+	public float branchProbability;
+
+	@Param({ "0.3", "1" })
+	public float zoomLevel;
+
+	@Param({ "0", "6", "10" })
+	public int splineQuality;
+
+	private FlowerSimulation simulation;
+	private SplineTessellator tessellator;
+	private KnotBatch knotBatch;
+	private GeometrySnapshot snapshot;
+	private float aspectX, aspectY;
+	private long time;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		float[][] colors = new float[this.flowerCount][];
+		for (int i = 0; i < this.flowerCount; ++i) {
+			colors[i] = new float[] { 1f, 1f, 1f, 1f };
+		}
+
+		this.simulation = new FlowerSimulation();
+		this.simulation.setPreferences(this.flowerCount, colors,
+		                               this.branchProbability, this.zoomLevel);
+		this.simulation.setSurfaceSize(FlowerSimulationBenchmark.SURFACE_WIDTH,
+		                               FlowerSimulationBenchmark.SURFACE_HEIGHT);
+		this.simulation.setSeed(FlowerSimulationBenchmark.SEED);
+		this.time = FlowerSimulationBenchmark.WARMUP_MILLIS;
+		this.snapshot = this.simulation.step(this.time, 0f, 0f);
+
+		this.tessellator = new SplineTessellator();
+		this.tessellator.setSplineVertexCount(this.splineQuality + 2);
+		this.tessellator.setTargetSize(FlowerSimulationBenchmark.SURFACE_WIDTH,
+		                        FlowerSimulationBenchmark.SURFACE_HEIGHT);
+		this.knotBatch = new KnotBatch();
+		this.aspectX = this.simulation.getAspectRatioX();
+		this.aspectY = this.simulation.getAspectRatioY();
+	}
+
+	/**
+	 * Growth at frame rate, new roots are only generated now and then.
+	 */
+	@Benchmark
+	public long growFrame() {
+		this.time += FlowerSimulationBenchmark.FRAME_MILLIS;
+		this.simulation.grow(this.time, 0f, 0f);
+		return this.time;
+	}
+
+	/**
+	 * Root generation: direction search, spline placement and branch
+	 * spawning on every call.
+	 */
+	@Benchmark
+	public long growRoot() {
+		this.time += FlowerSimulationBenchmark.ROOT_MILLIS;
+		this.simulation.grow(this.time, 0f, 0f);
+		return this.time;
+	}
+
+	/**
+	 * Spline bound computation and gathering of roots, branches and knots.
+	 */
+	@Benchmark
+	public GeometrySnapshot gather() {
+		return this.simulation.gather(this.time, 0f, 0f);
+	}
+
+	/**
+	 * Spline evaluation into the streamed triangle strip.
+	 */
+	@Benchmark
+	public int tessellate() {
+		this.tessellator.clear();
+		this.tessellator.add(this.snapshot, 0f, 0f, 1f, 1f,
+		                     this.aspectX, this.aspectY);
+		return this.tessellator.getVertexCount();
+	}
+
+	/**
+	 * Whole CPU frame as FlowerObjects.drawFrame() runs it, GL excluded.
+	 */
+	@Benchmark
+	public int frame() {
+		this.time += FlowerSimulationBenchmark.FRAME_MILLIS;
+		GeometrySnapshot snapshot = this.simulation.step(this.time, 0f, 0f);
+		this.tessellator.clear();
+		this.tessellator.add(snapshot, 0f, 0f, 1f, 1f,
+		                     this.aspectX, this.aspectY);
+		this.knotBatch.clear();
+		this.knotBatch.add(snapshot, 0f, 0f, 1f, 1f,
+		                   this.aspectX, this.aspectY);
+		return this.tessellator.getVertexCount() + this.knotBatch.getKnotCount();
+	}
+
+}
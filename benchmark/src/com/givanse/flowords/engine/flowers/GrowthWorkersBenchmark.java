@@ -0,0 +1,89 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Growth and gathering of dense scenes split over GrowthWorkers, to see
+ * how a frame scales with threads. Results only mean something with at
+ * least as many cores as threads, pin the JVM to fewer cores, e.g. with
+ * taskset, for numbers of smaller devices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrowthWorkersBenchmark {
+
+	private static final int SURFACE_WIDTH = 1920;
+	private static final int SURFACE_HEIGHT = 1080;
+	private static final long SEED = 0x5eedL;
+	private static final long FRAME_MILLIS = 16;
+	/* Long enough for all root rings to fill up */
+	private static final long WARMUP_MILLIS = 30000;
+
+	@Param({ "16", "64", "128" })
+	public int flowerCount;
+
+	@Param({ "1", "2", "4" })
+	public int threads;
+
+	private FlowerSimulation simulation;
+	private final GeometrySnapshot snapshot = new GeometrySnapshot();
+	private long time;
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		float[][] colors = { { 1f, 1f, 1f, 1f } };
+		this.simulation = new FlowerSimulation();
+		this.simulation.setThreads(this.threads);
+		this.simulation.setPreferences(this.flowerCount, colors, .5f, .5f);
+		this.simulation.setSurfaceSize(GrowthWorkersBenchmark.SURFACE_WIDTH,
+		                               GrowthWorkersBenchmark.SURFACE_HEIGHT);
+		this.simulation.setSeed(GrowthWorkersBenchmark.SEED);
+		this.time = GrowthWorkersBenchmark.WARMUP_MILLIS;
+		this.simulation.grow(this.time, 0f, 0f);
+	}
+
+	/**
+	 * Growth and gathering of one frame, as FlowerObjects runs them with
+	 * root layer cache off.
+	 */
+	@Benchmark
+	public int frame() {
+		this.time += GrowthWorkersBenchmark.FRAME_MILLIS;
+		this.simulation.grow(this.time, 0f, 0f);
+		return this.simulation.gather(this.time, 0f, 0f,
+		                              FlowerStore.GATHER_ALL,
+		                              this.snapshot).splineCount;
+	}
+
+}
@@ -14,7 +14,9 @@
 
 package com.givanse.flowords;
 
+import com.givanse.flowords.engine.RenderScheduler;
 import com.givanse.flowords.engine.Renderer;
+import com.givanse.flowords.engine.SharedContextFactory;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -43,6 +45,8 @@ public final class FlowordsService extends WallpaperService {
 		private WallpaperGLSurfaceView mGLSurfaceView;
 		private SharedPreferences mPreferences;
 		private Renderer mRenderer;
+		// Requests frames at preferred frame rate.
+		private RenderScheduler mScheduler;
 
 		@Override
 		public void onCreate(SurfaceHolder surfaceHolder) {
@@ -56,14 +60,21 @@ public final class FlowordsService extends WallpaperService {
 					       .getDefaultSharedPreferences(FlowordsService.this);
 			mPreferences.registerOnSharedPreferenceChangeListener(this);
 
-			mRenderer = new Renderer(FlowordsService.this);
+			// Engines share simulation and immutable GL objects.
+			SharedContextFactory contextFactory = new SharedContextFactory();
+			mRenderer = new Renderer(FlowordsService.this, contextFactory);
 			mRenderer.setPreferences(mPreferences);
 
 			mGLSurfaceView = new WallpaperGLSurfaceView(FlowordsService.this);
 			mGLSurfaceView.setEGLContextClientVersion(2);
+			mGLSurfaceView.setEGLContextFactory(contextFactory);
 			mGLSurfaceView.setRenderer(mRenderer);
-			mGLSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+			mGLSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 			mGLSurfaceView.onPause();
+
+			mScheduler = new RenderScheduler(FlowordsService.this,
+					                         mGLSurfaceView, mRenderer);
+			mScheduler.setPreferences(mPreferences);
 		}
 
 		@Override
@@ -71,8 +82,11 @@ public final class FlowordsService extends WallpaperService {
 			super.onDestroy();
 			mPreferences.unregisterOnSharedPreferenceChangeListener(this);
 			mPreferences = null;
+			mScheduler.stop();
+			mScheduler = null;
 			mGLSurfaceView.onDestroy();
 			mGLSurfaceView = null;
+			mRenderer.release();
 			mRenderer = null;
 		}
 
@@ -91,6 +105,7 @@ public final class FlowordsService extends WallpaperService {
 		public void onSharedPreferenceChanged(
                               SharedPreferences sharedPreferences, String key) {
 			mRenderer.setPreferences(sharedPreferences);
+			mScheduler.setPreferences(sharedPreferences);
 		}
 
 		@Override
@@ -98,7 +113,9 @@ public final class FlowordsService extends WallpaperService {
 			super.onVisibilityChanged(visible);
 			if (visible) {
 				mGLSurfaceView.onResume();
+				mScheduler.start();
 			} else {
+				mScheduler.stop();
 				mGLSurfaceView.onPause();
 			}
 		}
@@ -0,0 +1,172 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+/**
+ * Nanosecond timers around phases of a frame, each phase feeding its own
+ * Histogram. Phases are timed on the CPU, GL phases thus measure command
+ * submission and any stall the driver imposes, not GPU execution time.
+ * Does nothing while disabled. Owned by the GL thread.
+ */
+public final class FrameProfiler {
+
+	public static final int PHASE_FRAME = 0;          /* Whole onDrawFrame() */
+	public static final int PHASE_OFFSET = 1;
+	public static final int PHASE_BACKGROUND = 2;
+	public static final int PHASE_UPDATE = 3;  /* Growth, simulation thread */
+	public static final int PHASE_GATHER = 4;                        /* Ditto */
+	public static final int PHASE_SPLINES = 5;
+	public static final int PHASE_KNOTS = 6;
+	public static final int PHASE_COPY = 7;                  /* FBO to screen */
+	public static final int PHASE_CACHE = 8;          /* Root layer baking */
+	public static final int PHASES_TOTAL = 9;
+
+	private static final String[] PHASE_NAMES = { "frame", "offset",
+	                                              "background", "update",
+	                                              "gather", "splines", "knots",
+	                                              "copy", "cache" };
+
+	/* Per frame counts, reported as averages per frame */
+	public static final int COUNTER_SPLINES_VISIBLE = 0;
+	public static final int COUNTER_SPLINES_CULLED = 1;
+	public static final int COUNTER_KNOTS_VISIBLE = 2;
+	public static final int COUNTER_KNOTS_CULLED = 3;
+	public static final int COUNTERS_TOTAL = 4;
+
+	private final Histogram[] histograms =
+			                          new Histogram[FrameProfiler.PHASES_TOTAL];
+	private final long[] startTimes = new long[FrameProfiler.PHASES_TOTAL];
+	private final long[] counters = new long[FrameProfiler.COUNTERS_TOTAL];
+	private boolean enabled;
+
+	/**
+	 * Default constructor.
+	 */
+	public FrameProfiler() {
+		for (int i = 0; i < FrameProfiler.PHASES_TOTAL; ++i) {
+			this.histograms[i] = new Histogram();
+		}
+	}
+
+	public void setEnabled(boolean enabled) {
+		if (enabled && !this.enabled) {
+			this.clear();
+		}
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Starts timing given phase.
+	 */
+	public void begin(int phase) {
+		if (this.enabled) {
+			this.startTimes[phase] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Stops timing given phase and records its duration.
+	 */
+	public void end(int phase) {
+		if (this.enabled) {
+			this.histograms[phase].record(System.nanoTime() -
+			                              this.startTimes[phase]);
+		}
+	}
+
+	/**
+	 * Records a duration of given phase measured elsewhere, e.g. on
+	 * another thread.
+	 */
+	public void record(int phase, long nanos) {
+		if (this.enabled) {
+			this.histograms[phase].record(nanos);
+		}
+	}
+
+	/**
+	 * Adds to given counter.
+	 */
+	public void count(int counter, int value) {
+		if (this.enabled) {
+			this.counters[counter] += value;
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < FrameProfiler.PHASES_TOTAL; ++i) {
+			this.histograms[i].clear();
+		}
+		for (int i = 0; i < FrameProfiler.COUNTERS_TOTAL; ++i) {
+			this.counters[i] = 0;
+		}
+	}
+
+	public Histogram getHistogram(int phase) {
+		return this.histograms[phase];
+	}
+
+	/**
+	 * Appends one line per phase: name, p50, p95, p99 and max in
+	 * milliseconds. The first line holds the frame count, the last one
+	 * visible and culled splines and knots per frame.
+	 */
+	public void appendReport(StringBuilder builder) {
+		builder.append("frames ")
+		       .append(this.histograms[FrameProfiler.PHASE_FRAME].getCount())
+		       .append("  p50 / p95 / p99 / max ms");
+		for (int i = 0; i < FrameProfiler.PHASES_TOTAL; ++i) {
+			final Histogram histogram = this.histograms[i];
+			builder.append('\n').append(FrameProfiler.PHASE_NAMES[i]);
+			FrameProfiler.appendMillis(builder.append(' '),
+			                           histogram.getPercentile(.50f));
+			FrameProfiler.appendMillis(builder.append(" / "),
+			                           histogram.getPercentile(.95f));
+			FrameProfiler.appendMillis(builder.append(" / "),
+			                           histogram.getPercentile(.99f));
+			FrameProfiler.appendMillis(builder.append(" / "),
+			                           histogram.getMax());
+		}
+
+		final long frames = Math.max(1,
+		          this.histograms[FrameProfiler.PHASE_FRAME].getCount());
+		final long[] c = this.counters;
+		builder.append("\nsplines ")
+		       .append(c[FrameProfiler.COUNTER_SPLINES_VISIBLE] / frames)
+		       .append(" culled ")
+		       .append(c[FrameProfiler.COUNTER_SPLINES_CULLED] / frames)
+		       .append("  knots ")
+		       .append(c[FrameProfiler.COUNTER_KNOTS_VISIBLE] / frames)
+		       .append(" culled ")
+		       .append(c[FrameProfiler.COUNTER_KNOTS_CULLED] / frames);
+	}
+
+	/**
+	 * Appends microseconds as milliseconds with two decimals.
+	 */
+	private static void appendMillis(StringBuilder builder, long micros) {
+		final long hundredths = (micros + 5) / 10;
+		builder.append(hundredths / 100).append('.');
+		if (hundredths % 100 < 10) {
+			builder.append('0');
+		}
+		builder.append(hundredths % 100);
+	}
+
+}
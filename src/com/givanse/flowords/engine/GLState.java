@@ -0,0 +1,379 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import android.opengl.GLES20;
+
+/**
+ * Mirror of the GL state used while rendering a frame: program, texture
+ * bindings, array buffer, frame buffer, viewport, caps, blend function,
+ * vertex attribute arrays and uniform values of every program. Calls which
+ * would not change anything are skipped and counted.
+ *
+ * Only valid as long as all of that state is changed through this class.
+ * Code binding objects directly, mostly resource setup, has to call
+ * invalidate() afterwards. One instance per context, GL thread only.
+ */
+public final class GLState {
+
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+	private static final int ATTRIBS_TOTAL = 16;
+	private static final int UNITS_TOTAL = 8;
+
+	/* Caps tracked, bit per cap */
+	private static final int CAP_BLEND = 1;
+	private static final int CAP_CULL_FACE = 2;
+	private static final int CAP_DEPTH_TEST = 4;
+	private static final int CAP_SCISSOR_TEST = 8;
+
+	private int program;
+	private int activeUnit;
+	private final int[] textures = new int[GLState.UNITS_TOTAL];
+	private int arrayBuffer;
+	private int frameBuffer;
+	private final int[] viewport = new int[4];
+	private int capsEnabled;
+	private int capsKnown;
+	private final int[] blendFunc = new int[4];    /* src, dst rgb, alpha */
+
+	/* Vertex attribute arrays, indexed by attribute location */
+	private final boolean[] attribEnabled = new boolean[GLState.ATTRIBS_TOTAL];
+	private final boolean[] attribEnabledKnown =
+			                              new boolean[GLState.ATTRIBS_TOTAL];
+	private final int[] attribBuffer = new int[GLState.ATTRIBS_TOTAL];
+	private final int[] attribSize = new int[GLState.ATTRIBS_TOTAL];
+	private final int[] attribType = new int[GLState.ATTRIBS_TOTAL];
+	private final boolean[] attribNormalized =
+			                              new boolean[GLState.ATTRIBS_TOTAL];
+	private final int[] attribStride = new int[GLState.ATTRIBS_TOTAL];
+	private final int[] attribOffset = new int[GLState.ATTRIBS_TOTAL];
+
+	private long issuedCount;
+	private long elidedCount;
+
+	/**
+	 * Default constructor.
+	 */
+	public GLState() {
+		this.invalidate();
+	}
+
+	/**
+	 * Forgets everything, next call of each kind is issued.
+	 */
+	public void invalidate() {
+		this.program = GLState.UNKNOWN;
+		this.activeUnit = GLState.UNKNOWN;
+		for (int i = 0; i < GLState.UNITS_TOTAL; ++i) {
+			this.textures[i] = GLState.UNKNOWN;
+		}
+		this.arrayBuffer = GLState.UNKNOWN;
+		this.frameBuffer = GLState.UNKNOWN;
+		this.viewport[0] = GLState.UNKNOWN;
+		this.capsKnown = 0;
+		this.blendFunc[0] = GLState.UNKNOWN;
+		for (int i = 0; i < GLState.ATTRIBS_TOTAL; ++i) {
+			this.attribEnabledKnown[i] = false;
+			this.attribBuffer[i] = GLState.UNKNOWN;
+		}
+	}
+
+	/**
+	 * Calls issued to GL since last resetCounters().
+	 */
+	public long getIssuedCount() {
+		return this.issuedCount;
+	}
+
+	/**
+	 * Calls skipped since last resetCounters().
+	 */
+	public long getElidedCount() {
+		return this.elidedCount;
+	}
+
+	public void resetCounters() {
+		this.issuedCount = this.elidedCount = 0;
+	}
+
+	private boolean isChanged(boolean changed) {
+		if (changed) {
+			++this.issuedCount;
+		} else {
+			++this.elidedCount;
+		}
+		return changed;
+	}
+
+	/* PROGRAM, UNIFORMS */
+
+	public void useProgram(HelperShader shader) {
+		final int program = shader.getProgram();
+		if (this.isChanged(this.program != program)) {
+			this.program = program;
+			GLES20.glUseProgram(program);
+		}
+	}
+
+	/*
+	 * Uniform setters expect given shader to be the current program. Values
+	 * are kept per program by HelperShader, they survive program switches.
+	 */
+
+	public void uniform1f(HelperShader shader, int location, float x) {
+		final float[] v = shader.getUniformValues(location);
+		final int i = location * 4;
+		if (this.isChanged(v == null || v[i] != x)) {
+			if (v != null) {
+				v[i] = x;
+			}
+			GLES20.glUniform1f(location, x);
+		}
+	}
+
+	public void uniform2f(HelperShader shader, int location,
+	                      float x, float y) {
+		final float[] v = shader.getUniformValues(location);
+		final int i = location * 4;
+		if (this.isChanged(v == null || v[i] != x || v[i + 1] != y)) {
+			if (v != null) {
+				v[i] = x;
+				v[i + 1] = y;
+			}
+			GLES20.glUniform2f(location, x, y);
+		}
+	}
+
+	public void uniform3f(HelperShader shader, int location,
+	                      float x, float y, float z) {
+		final float[] v = shader.getUniformValues(location);
+		final int i = location * 4;
+		if (this.isChanged(v == null || v[i] != x || v[i + 1] != y ||
+		                   v[i + 2] != z)) {
+			if (v != null) {
+				v[i] = x;
+				v[i + 1] = y;
+				v[i + 2] = z;
+			}
+			GLES20.glUniform3f(location, x, y, z);
+		}
+	}
+
+	public void uniform4f(HelperShader shader, int location,
+	                      float x, float y, float z, float w) {
+		final float[] v = shader.getUniformValues(location);
+		final int i = location * 4;
+		if (this.isChanged(v == null || v[i] != x || v[i + 1] != y ||
+		                   v[i + 2] != z || v[i + 3] != w)) {
+			if (v != null) {
+				v[i] = x;
+				v[i + 1] = y;
+				v[i + 2] = z;
+				v[i + 3] = w;
+			}
+			GLES20.glUniform4f(location, x, y, z, w);
+		}
+	}
+
+	public void uniform2fv(HelperShader shader, int location, float[] value) {
+		this.uniform2f(shader, location, value[0], value[1]);
+	}
+
+	public void uniform3fv(HelperShader shader, int location, float[] value) {
+		this.uniform3f(shader, location, value[0], value[1], value[2]);
+	}
+
+	public void uniform4fv(HelperShader shader, int location, float[] value) {
+		this.uniform4f(shader, location, value[0], value[1], value[2],
+		               value[3]);
+	}
+
+	/* TEXTURES, BUFFERS */
+
+	/**
+	 * Binds 2D texture to given texture unit, activating the unit if needed.
+	 */
+	public void bindTexture(int unit, int texture) {
+		if (unit >= GLState.UNITS_TOTAL) {
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+			this.activeUnit = unit;
+			this.issuedCount += 2;
+			return;
+		}
+		if (this.textures[unit] == texture) {
+			++this.elidedCount;
+			return;
+		}
+		if (this.isChanged(this.activeUnit != unit)) {
+			this.activeUnit = unit;
+			GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+		}
+		++this.issuedCount;
+		this.textures[unit] = texture;
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+	}
+
+	public void bindArrayBuffer(int buffer) {
+		if (this.isChanged(this.arrayBuffer != buffer)) {
+			this.arrayBuffer = buffer;
+			GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+		}
+	}
+
+	public void bindFramebuffer(int frameBuffer) {
+		if (this.isChanged(this.frameBuffer != frameBuffer)) {
+			this.frameBuffer = frameBuffer;
+			GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+		}
+	}
+
+	public void viewport(int x, int y, int width, int height) {
+		final int[] v = this.viewport;
+		if (this.isChanged(v[0] != x || v[1] != y || v[2] != width ||
+		                   v[3] != height)) {
+			v[0] = x;
+			v[1] = y;
+			v[2] = width;
+			v[3] = height;
+			GLES20.glViewport(x, y, width, height);
+		}
+	}
+
+	/* CAPS, BLENDING */
+
+	private static int getCapBit(int cap) {
+		switch (cap) {
+		case GLES20.GL_BLEND:
+			return GLState.CAP_BLEND;
+		case GLES20.GL_CULL_FACE:
+			return GLState.CAP_CULL_FACE;
+		case GLES20.GL_DEPTH_TEST:
+			return GLState.CAP_DEPTH_TEST;
+		case GLES20.GL_SCISSOR_TEST:
+			return GLState.CAP_SCISSOR_TEST;
+		default:
+			return 0;
+		}
+	}
+
+	public void enable(int cap) {
+		final int bit = GLState.getCapBit(cap);
+		if (this.isChanged(bit == 0 || (this.capsKnown & bit) == 0 ||
+		                   (this.capsEnabled & bit) == 0)) {
+			this.capsKnown |= bit;
+			this.capsEnabled |= bit;
+			GLES20.glEnable(cap);
+		}
+	}
+
+	public void disable(int cap) {
+		final int bit = GLState.getCapBit(cap);
+		if (this.isChanged(bit == 0 || (this.capsKnown & bit) == 0 ||
+		                   (this.capsEnabled & bit) != 0)) {
+			this.capsKnown |= bit;
+			this.capsEnabled &= ~bit;
+			GLES20.glDisable(cap);
+		}
+	}
+
+	public void blendFunc(int src, int dst) {
+		this.blendFuncSeparate(src, dst, src, dst);
+	}
+
+	public void blendFuncSeparate(int srcRGB, int dstRGB,
+	                              int srcAlpha, int dstAlpha) {
+		final int[] b = this.blendFunc;
+		if (this.isChanged(b[0] != srcRGB || b[1] != dstRGB ||
+		                   b[2] != srcAlpha || b[3] != dstAlpha)) {
+			b[0] = srcRGB;
+			b[1] = dstRGB;
+			b[2] = srcAlpha;
+			b[3] = dstAlpha;
+			if (srcRGB == srcAlpha && dstRGB == dstAlpha) {
+				GLES20.glBlendFunc(srcRGB, dstRGB);
+			} else {
+				GLES20.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha);
+			}
+		}
+	}
+
+	/* VERTEX ATTRIBUTES */
+
+	/**
+	 * Points attribute into currently bound array buffer and enables it.
+	 * Negative locations, attributes optimized away, are ignored.
+	 */
+	public void vertexAttribPointer(int location, int size, int type,
+	                                boolean normalized, int stride,
+	                                int offset) {
+		if (location < 0) {
+			return;
+		}
+		if (location >= GLState.ATTRIBS_TOTAL) {
+			GLES20.glVertexAttribPointer(location, size, type, normalized,
+			                             stride, offset);
+			GLES20.glEnableVertexAttribArray(location);
+			this.issuedCount += 2;
+			return;
+		}
+		if (this.isChanged(this.arrayBuffer == GLState.UNKNOWN ||
+		                   this.attribBuffer[location] != this.arrayBuffer ||
+		                   this.attribSize[location] != size ||
+		                   this.attribType[location] != type ||
+		                   this.attribNormalized[location] != normalized ||
+		                   this.attribStride[location] != stride ||
+		                   this.attribOffset[location] != offset)) {
+			this.attribBuffer[location] = this.arrayBuffer;
+			this.attribSize[location] = size;
+			this.attribType[location] = type;
+			this.attribNormalized[location] = normalized;
+			this.attribStride[location] = stride;
+			this.attribOffset[location] = offset;
+			GLES20.glVertexAttribPointer(location, size, type, normalized,
+			                             stride, offset);
+		}
+		this.setAttribEnabled(location, true);
+	}
+
+	/**
+	 * Disables attribute array, e.g. one advanced per instance.
+	 */
+	public void disableVertexAttribArray(int location) {
+		if (location < 0) {
+			return;
+		}
+		if (location >= GLState.ATTRIBS_TOTAL) {
+			GLES20.glDisableVertexAttribArray(location);
+			++this.issuedCount;
+			return;
+		}
+		this.setAttribEnabled(location, false);
+	}
+
+	private void setAttribEnabled(int location, boolean enabled) {
+		if (this.isChanged(!this.attribEnabledKnown[location] ||
+		                   this.attribEnabled[location] != enabled)) {
+			this.attribEnabledKnown[location] = true;
+			this.attribEnabled[location] = enabled;
+			if (enabled) {
+				GLES20.glEnableVertexAttribArray(location);
+			} else {
+				GLES20.glDisableVertexAttribArray(location);
+			}
+		}
+	}
+
+}
@@ -26,6 +26,10 @@ public final class HelperFrameBuffer {
 	private int stencilBufferHandle = -1;   /* Optional stencil buffer handle */
 	private int[] textureHandles = {};
 	
+	public int getFrameBuffer() {
+		return this.frameBufferHandle;
+	}
+
 	public void bindFrameBuffer() {
 		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, this.frameBufferHandle);
 	}
@@ -67,7 +71,41 @@ public final class HelperFrameBuffer {
 	 *            Number of textures to generate.
 	 */
 	public void setTexturesPrefs(int width, int height, int textureCount) {
-		this.setTexturesPrefs(width, height, textureCount, false, false);
+		this.setTexturesPrefs(width, height, textureCount, GLES20.GL_RGBA,
+				              GLES20.GL_UNSIGNED_BYTE);
+	}
+
+	/**
+	 * Calls this.init(int, int, int, boolean, boolean) without render buffer
+	 * generations, textures using given pixel format. Falls back to
+	 * RGBA8888 if the format is not color renderable on this device.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @param textureCount
+	 *            Number of textures to generate.
+	 * @param format
+	 *            Texture format, GL_RGB or GL_RGBA.
+	 * @param type
+	 *            Texel type, e.g. GL_UNSIGNED_SHORT_5_6_5 with GL_RGB.
+	 * @return true if textures use requested format.
+	 */
+	public boolean setTexturesPrefs(int width, int height, int textureCount,
+			                        int format, int type) {
+		this.setTexturesPrefs(width, height, textureCount, format, type,
+				              false, false);
+		if (format == GLES20.GL_RGBA && type == GLES20.GL_UNSIGNED_BYTE) {
+			return true;
+		}
+		this.bindTexture(0);
+		if (GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER) ==
+				GLES20.GL_FRAMEBUFFER_COMPLETE) {
+			return true;
+		}
+		this.setTexturesPrefs(width, height, textureCount);
+		return false;
 	}
 
 	/**
@@ -81,12 +119,17 @@ public final class HelperFrameBuffer {
 	 *            FBO height in pixels
 	 * @param textureCount
 	 *            Number of textures to generate
+	 * @param format
+	 *            Texture format
+	 * @param type
+	 *            Texel type
 	 * @param genDepthBuffer
 	 *            If true, depth buffer is allocated for this FBO @ param
 	 *            genStencilBuffer If true, stencil buffer is allocated for this
 	 *            FBO
 	 */
 	private void setTexturesPrefs(int width, int height, int textureCount,
+			                      int format, int type,
 			                      boolean genDepthBuffer, 
 			                      boolean genStencilBuffer) {
 
@@ -116,9 +159,9 @@ public final class HelperFrameBuffer {
 								   GLES20.GL_TEXTURE_MAG_FILTER, 
 								   GLES20.GL_LINEAR);
 			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, 
-								GLES20.GL_RGBA, width, height, 0, 
-								GLES20.GL_RGBA,
-								GLES20.GL_UNSIGNED_BYTE, null);
+								format, width, height, 0, 
+								format,
+								type, null);
 		}
 
 		/* Generate depth buffer */
@@ -152,6 +195,16 @@ public final class HelperFrameBuffer {
 		}
 	}
 
+	/**
+	 * Drops all handles without deleting them, for when the context they
+	 * belonged to is gone. Deleting them would hit objects of the new one.
+	 */
+	public void forget() {
+		this.frameBufferHandle = 
+		this.depthBufferHandle = this.stencilBufferHandle = -1;
+		this.textureHandles = new int[0];
+	}
+
 	/**
 	 * Resets this FBO into its initial state, releasing all resources that were
 	 * allocated during a call to init.
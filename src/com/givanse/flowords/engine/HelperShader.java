@@ -14,49 +14,45 @@
 
 package com.givanse.flowords.engine;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import android.opengl.GLES20;
 import android.util.Log;
 
 /**
- * Helper class for handling shaders.
+ * Helper class for handling shaders. Active attributes and uniforms are
+ * enumerated once a program is linked; callers resolve the handles they
+ * need into int arrays right after setProgram(), so no name lookups or GL
+ * queries happen while rendering.
  */
 public final class HelperShader {
 
 	private int mProgram = -1;                       /* Shader program handle */ 
-	private final HashMap<String, Integer> /* Store uniform/attribute handles */
-	                          shaderHandlesMap = new HashMap<String, Integer>();
+	private String[] handleNames = {};  /* Active attributes, then uniforms */
+	private int[] handleIds = {};
+	private float[] uniformValues = {};   /* 4 per uniform location, GLState */
+
+	private static final int UNIFORM_LOCATION_MAX = 255;
 
 	/**
 	 * Get id for given handle name. This method checks for both attribute and
-	 * uniform handles.
+	 * uniform handles. Only searches handles enumerated at link time, meant
+	 * to be called once per handle after setProgram().
 	 * 
 	 * @param handleName
 	 *            Name of handle.
 	 * @return Id for given handle or -1 if none found.
 	 */
 	public int getAUHandleId(String handleName) {
-		if (this.shaderHandlesMap.containsKey(handleName)) {
-			return this.shaderHandlesMap.get(handleName);
-		}
-		
-		int handle = GLES20.glGetAttribLocation(this.mProgram, handleName);
-		if (handle == -1) {
-			handle = GLES20.glGetUniformLocation(this.mProgram, handleName);
-		}
-		
-		if (handle == -1) {
-			// TODO: log disable this line.
-			// One should never leave log messages but am not going to follow
-			// this rule. This line comes handy if you see repeating 'not found'
-			// messages on LogCat - usually for typos otherwise annoying to
-			// spot from shader code.
-			Log.d("GlslShader", "Could not get attrib location for " + handleName);
-		} else {
-			this.shaderHandlesMap.put(handleName, handle);
+		for (int i = 0; i < this.handleNames.length; ++i) {
+			if (this.handleNames[i].equals(handleName)) {
+				return this.handleIds[i];
+			}
 		}
 		
-		return handle;
+		// Comes handy for typos otherwise annoying to spot from shader code,
+		// but also reported for variables the compiler optimized away.
+		Log.d("GlslShader", "Could not get attrib location for " + handleName);
+		return -1;
 	}
 
 	/**
@@ -115,6 +111,110 @@ public final class HelperShader {
 	 *            String presentation for fragment shader
 	 */
 	public void setProgram(String vertexSource, String fragmentSource) {
+		this.setProgram(vertexSource, fragmentSource, null);
+	}
+
+	/**
+	 * Same as setProgram(String, String), but restores the program from a
+	 * stored binary if possible. Programs compiled from source are stored.
+	 * 
+	 * @param vertexSource
+	 *            String presentation for vertex shader
+	 * @param fragmentSource
+	 *            String presentation for fragment shader
+	 * @param cache
+	 *            Program binary cache, or null to always compile.
+	 */
+	public void setProgram(String vertexSource, String fragmentSource,
+			               ShaderCache cache) {
+		int programHandle = cache == null ? 0 :
+			                cache.load(vertexSource, fragmentSource);
+		if (programHandle == 0) {
+			programHandle = linkProgram(vertexSource, fragmentSource, cache);
+			if (cache != null) {
+				cache.store(vertexSource, fragmentSource, programHandle);
+			}
+		}
+		
+		this.mProgram = programHandle;
+		this.enumerateHandles();
+	}
+
+	/**
+	 * Reads names and locations of every active attribute and uniform of
+	 * current program. Array uniforms are stored without the "[0]" suffix.
+	 */
+	private void enumerateHandles() {
+		final int program = this.mProgram;
+		final int[] attribs = { 0 }, uniforms = { 0 };
+		final int[] attribLength = { 0 }, uniformLength = { 0 };
+		GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_ATTRIBUTES, attribs, 0);
+		GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_UNIFORMS, uniforms, 0);
+		GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH,
+				              attribLength, 0);
+		GLES20.glGetProgramiv(program, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH,
+				              uniformLength, 0);
+
+		final int count = attribs[0] + uniforms[0];
+		int locationMax = -1;
+		this.handleNames = new String[count];
+		this.handleIds = new int[count];
+		final byte[] name = new byte[Math.max(attribLength[0],
+				                              uniformLength[0]) + 1];
+		final int[] length = { 0 }, size = { 0 }, type = { 0 };
+		for (int i = 0; i < count; ++i) {
+			String handleName;
+			if (i < attribs[0]) {
+				GLES20.glGetActiveAttrib(program, i, name.length, length, 0,
+						                 size, 0, type, 0, name, 0);
+				handleName = new String(name, 0, length[0]);
+				this.handleIds[i] = GLES20.glGetAttribLocation(program,
+						                                       handleName);
+			} else {
+				GLES20.glGetActiveUniform(program, i - attribs[0], name.length,
+						                  length, 0, size, 0, type, 0, name, 0);
+				handleName = new String(name, 0, length[0]);
+				this.handleIds[i] = GLES20.glGetUniformLocation(program,
+						                                        handleName);
+				locationMax = Math.max(locationMax, this.handleIds[i]);
+				if (handleName.endsWith("[0]")) {
+					handleName = handleName.substring(0,
+							                          handleName.length() - 3);
+				}
+			}
+			this.handleNames[i] = handleName;
+		}
+
+		// Values are unknown until set, NaN never compares equal.
+		this.uniformValues = new float[locationMax <=
+		                               HelperShader.UNIFORM_LOCATION_MAX ?
+		                               (locationMax + 1) * 4 : 0];
+		Arrays.fill(this.uniformValues, Float.NaN);
+	}
+
+	/**
+	 * Shader program handle.
+	 */
+	public int getProgram() {
+		return this.mProgram;
+	}
+
+	/**
+	 * Last values set for uniforms of this program through GLState, 4 per
+	 * location. Returns null if given location is not tracked.
+	 */
+	float[] getUniformValues(int location) {
+		return location >= 0 && location * 4 < this.uniformValues.length ?
+		       this.uniformValues : null;
+	}
+
+	/**
+	 * Helper method for compiling and linking a program.
+	 * 
+	 * @return id for linked program
+	 */
+	private int linkProgram(String vertexSource, String fragmentSource,
+			                ShaderCache cache) {
 		int vertexShader = compileShader(GLES20.GL_VERTEX_SHADER,
 				                         vertexSource);
 		int fragmentShader = compileShader(GLES20.GL_FRAGMENT_SHADER, 
@@ -124,6 +224,9 @@ public final class HelperShader {
 		if (programHandle != 0) {
 			GLES20.glAttachShader(programHandle, vertexShader);
 			GLES20.glAttachShader(programHandle, fragmentShader);
+			if (cache != null) {
+				cache.onCreateProgram(programHandle);
+			}
 			GLES20.glLinkProgram(programHandle);
 			
 			int[] linkStatus = new int[1];
@@ -137,9 +240,7 @@ public final class HelperShader {
 		} else if (programHandle == 0) {
 		    throw new RuntimeException("Error creating program.");
 		}
-		
-		this.mProgram = programHandle;
-		this.shaderHandlesMap.clear();
+		return programHandle;
 	}
 
 	/**
@@ -0,0 +1,102 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import java.nio.Buffer;
+import android.opengl.GLES20;
+
+/**
+ * Helper class for handling vertex buffer objects.
+ */
+public final class HelperVertexBuffer {
+
+	private final int[] bufferHandle = { -1 };        /* The actual buffer */
+	private int sizeBytes;                  /* Bytes currently allocated */
+
+	/**
+	 * Generates the buffer object. Should be called from onSurfaceCreated(),
+	 * previous handles are lost together with the old OpenGL context.
+	 */
+	public void init() {
+		GLES20.glGenBuffers(1, this.bufferHandle, 0);
+		this.sizeBytes = 0;
+	}
+
+	/**
+	 * Binds this buffer as current GL_ARRAY_BUFFER.
+	 */
+	public void bind() {
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, this.bufferHandle[0]);
+	}
+
+	/**
+	 * Binds this buffer as current GL_ARRAY_BUFFER unless it already is.
+	 */
+	public void bind(GLState state) {
+		state.bindArrayBuffer(this.bufferHandle[0]);
+	}
+
+	/**
+	 * Restores client side vertex arrays.
+	 */
+	public static void unbind() {
+		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Uploads data into this buffer, leaving it bound.
+	 *
+	 * @param data
+	 *            Data to upload, read from position 0.
+	 * @param sizeBytes
+	 *            Amount of bytes to upload.
+	 * @param usage
+	 *            GL_STATIC_DRAW, GL_DYNAMIC_DRAW or GL_STREAM_DRAW.
+	 */
+	public void setData(Buffer data, int sizeBytes, int usage) {
+		this.bind();
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, sizeBytes, data, usage);
+		this.sizeBytes = sizeBytes;
+	}
+
+	/**
+	 * Same as setData(Buffer, int, int), binding through given state cache.
+	 */
+	public void setData(GLState state, Buffer data, int sizeBytes,
+	                    int usage) {
+		this.bind(state);
+		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, sizeBytes, data, usage);
+		this.sizeBytes = sizeBytes;
+	}
+
+	/**
+	 * Getter for bytes currently allocated.
+	 */
+	public int getSizeBytes() {
+		return this.sizeBytes;
+	}
+
+	/**
+	 * Releases the buffer object.
+	 */
+	public void reset() {
+		if (this.bufferHandle[0] != -1) {
+			GLES20.glDeleteBuffers(1, this.bufferHandle, 0);
+		}
+		this.bufferHandle[0] = -1;
+		this.sizeBytes = 0;
+	}
+
+}
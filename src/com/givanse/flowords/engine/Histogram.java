@@ -0,0 +1,112 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+/**
+ * Fixed bucket histogram of durations, recording never allocates. Values
+ * are kept in microseconds; below SUB_BUCKETS every value has its own
+ * bucket, above it every power of two is split into SUB_BUCKETS buckets,
+ * which keeps relative error under 1 / SUB_BUCKETS.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << Histogram.SUB_BUCKET_BITS;
+	/* Values below 2^24 microseconds, ~16 seconds, larger are clamped */
+	private static final int MAX_BITS = 24;
+	/* Values below SUB_BUCKETS, then one row per power of two above it */
+	private static final int BUCKETS_TOTAL = (Histogram.MAX_BITS -
+	                         Histogram.SUB_BUCKET_BITS + 1) *
+	                         Histogram.SUB_BUCKETS;
+
+	private final int[] counts = new int[Histogram.BUCKETS_TOTAL];
+	private int count;
+	private long max;                                      /* Microseconds */
+
+	/**
+	 * Adds one duration.
+	 *
+	 * @param nanos
+	 *            Duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		final long micros = nanos / 1000;
+		++this.counts[Histogram.getBucket(micros)];
+		++this.count;
+		this.max = Math.max(this.max, micros);
+	}
+
+	public void clear() {
+		for (int i = 0; i < Histogram.BUCKETS_TOTAL; ++i) {
+			this.counts[i] = 0;
+		}
+		this.count = 0;
+		this.max = 0;
+	}
+
+	public int getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Largest recorded value in microseconds.
+	 */
+	public long getMax() {
+		return this.max;
+	}
+
+	/**
+	 * Returns value in microseconds at or below which given fraction of
+	 * recorded values lie, rounded up to bucket bounds.
+	 *
+	 * @param fraction
+	 *            Value between [0, 1], e.g. 0.95 for 95th percentile.
+	 */
+	public long getPercentile(float fraction) {
+		if (this.count == 0) {
+			return 0;
+		}
+		final int target = Math.max(1, (int) Math.ceil(fraction * this.count));
+		int total = 0;
+		for (int i = 0; i < Histogram.BUCKETS_TOTAL; ++i) {
+			total += this.counts[i];
+			if (total >= target) {
+				return Math.min(Histogram.getUpperBound(i), this.max);
+			}
+		}
+		return this.max;
+	}
+
+	private static int getBucket(long micros) {
+		if (micros < Histogram.SUB_BUCKETS) {
+			return (int) Math.max(micros, 0);
+		}
+		final int shift = 63 - Long.numberOfLeadingZeros(micros) -
+		                  Histogram.SUB_BUCKET_BITS;
+		final int sub = (int) (micros >>> shift) & (Histogram.SUB_BUCKETS - 1);
+		return Math.min((shift + 1) * Histogram.SUB_BUCKETS + sub,
+		                Histogram.BUCKETS_TOTAL - 1);
+	}
+
+	private static long getUpperBound(int bucket) {
+		if (bucket < Histogram.SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = bucket / Histogram.SUB_BUCKETS - 1;
+		final int sub = bucket % Histogram.SUB_BUCKETS;
+		return ((long) (Histogram.SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+}
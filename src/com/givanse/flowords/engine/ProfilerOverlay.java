@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import com.givanse.flowords.R;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+/**
+ * Debug overlay showing FrameProfiler report in the top left corner. Text
+ * is drawn with Canvas into a texture, which is only updated when the
+ * report changes.
+ */
+public final class ProfilerOverlay {
+
+	private static final int TEXTURE_WIDTH = 512;
+	private static final int TEXTURE_HEIGHT = 256;
+	private static final int TEXT_SIZE = 18;                       /* Pixels */
+	private static final int BACKGROUND_COLOR = 0xA0000000;
+
+	private final GLState glState;
+	private final HelperShader shader = new HelperShader();
+	private int aPositionHndl = -1;                /* Resolved after linking */
+	private final int textureId[] = { -1 };
+	private final Bitmap bitmap;
+	private final Canvas canvas;
+	private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final StringBuilder text = new StringBuilder();
+	private boolean isDirty;                      /* Upload on next draw() */
+
+	/**
+	 * Default constructor.
+	 * 
+	 * @param glState
+	 *            State cache drawing goes through.
+	 */
+	public ProfilerOverlay(GLState glState) {
+		this.glState = glState;
+		this.bitmap = Bitmap.createBitmap(ProfilerOverlay.TEXTURE_WIDTH,
+		                                  ProfilerOverlay.TEXTURE_HEIGHT,
+		                                  Bitmap.Config.ARGB_8888);
+		this.canvas = new Canvas(this.bitmap);
+		this.paint.setColor(0xFFFFFFFF);
+		this.paint.setTextSize(ProfilerOverlay.TEXT_SIZE);
+		this.paint.setTypeface(Typeface.MONOSPACE);
+	}
+
+	/**
+	 * Redraws overlay text from current profiler state.
+	 */
+	public void update(FrameProfiler profiler) {
+		this.text.setLength(0);
+		profiler.appendReport(this.text);
+
+		this.bitmap.eraseColor(ProfilerOverlay.BACKGROUND_COLOR);
+		float y = ProfilerOverlay.TEXT_SIZE;
+		int lineStart = 0;
+		for (int i = 0; i <= this.text.length(); ++i) {
+			if (i == this.text.length() || this.text.charAt(i) == '\n') {
+				this.canvas.drawText(this.text.substring(lineStart, i),
+				                     8, y, this.paint);
+				y += ProfilerOverlay.TEXT_SIZE + 4;
+				lineStart = i + 1;
+			}
+		}
+		this.isDirty = true;
+	}
+
+	/**
+	 * Draws overlay onto currently bound frame buffer.
+	 *
+	 * @param width
+	 *            Surface width.
+	 * @param height
+	 *            Surface height.
+	 * @param vboVerticesCoords
+	 *            Full screen quad, Screen.VERTICES_COORDS.
+	 */
+	public void draw(int width, int height,
+	                 HelperVertexBuffer vboVerticesCoords) {
+		final GLState state = this.glState;
+		state.bindTexture(0, this.textureId[0]);
+		if (this.isDirty) {
+			GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, this.bitmap);
+			this.isDirty = false;
+		}
+
+		// Texture data is premultiplied.
+		state.enable(GLES20.GL_BLEND);
+		state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		state.viewport(0, height - ProfilerOverlay.TEXTURE_HEIGHT,
+		               ProfilerOverlay.TEXTURE_WIDTH,
+		               ProfilerOverlay.TEXTURE_HEIGHT);
+
+		state.useProgram(this.shader);
+		vboVerticesCoords.bind(state);
+		state.vertexAttribPointer(this.aPositionHndl,
+		                          Screen.VERTEX_SIZE_COORDS,
+		                          GLES20.GL_BYTE,
+		                          false,
+		                          0,
+		                          0);
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+		state.viewport(0, 0, width, height);
+		state.disable(GLES20.GL_BLEND);
+	}
+
+	/**
+	 * Creates shader and texture, old ones are lost with the context.
+	 */
+	public void onSurfaceCreated(Context context, ShaderCache shaderCache) {
+		this.shader.setProgram(context.getString(R.string.shader_overlay_vs),
+		                       context.getString(R.string.shader_overlay_fs),
+		                       shaderCache);
+		this.aPositionHndl = this.shader.getAUHandleId("aPosition");
+
+		GLES20.glGenTextures(1, this.textureId, 0);
+		this.glState.bindTexture(0, this.textureId[0]);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, this.bitmap, 0);
+		this.isDirty = false;
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+/**
+ * Steps an internal quality level up or down from measured frame times so
+ * frames fit into a budget derived from the target frame rate. LEVEL_MAX
+ * renders exactly what user preferences ask for, lower levels scale them
+ * down. Frame times are averaged over WINDOW_FRAMES; one slow window steps
+ * down, UP_WINDOWS fast windows in a row step up, and the gap between
+ * DOWN_THRESHOLD and UP_THRESHOLD keeps the level from oscillating.
+ *
+ * GL calls return before the GPU runs them, so time spent in onDrawFrame
+ * alone is only the CPU submission cost. Every FINISH_FRAMES frame the
+ * renderer ends with glFinish(), those samples include GPU execution of
+ * the frame, fill rate bound work the render scale is meant to reduce.
+ * A window is judged by the larger of its CPU mean and finished mean.
+ */
+public final class QualityGovernor {
+
+	public static final int LEVEL_MIN = 0;
+	public static final int LEVEL_MAX = 4;
+
+	/* Per level factors, indexed by level */
+	private static final float[] SPLINE_VERTEX_FACTORS = { .25f, .4f, .6f,
+	                                                       .8f, 1f };
+	private static final float[] BRANCH_FACTORS = { .5f, .7f, .85f, 1f, 1f };
+	private static final float[] RENDER_SCALES = { .5f, .6f, .75f, 1f, 1f };
+	private static final int KNOTS_LEVEL_MIN = 1;
+
+	private static final int WINDOW_FRAMES = 30;
+	private static final float BUDGET_FRACTION = .75f;   /* Of frame period */
+	private static final float DOWN_THRESHOLD = 1f;      /* Of budget */
+	private static final float UP_THRESHOLD = .6f;
+	private static final int UP_WINDOWS = 3;
+	private static final int FINISH_FRAMES = 10;     /* Finished sample rate */
+
+	private int level = QualityGovernor.LEVEL_MAX;
+	private int minLevel = QualityGovernor.LEVEL_MAX;
+	private long budgetNanos;
+	private long windowNanos;
+	private int windowFrames;
+	private long finishedNanos;
+	private int finishedFrames;
+	private int framesToFinish;
+	private int fastWindows;
+
+	/**
+	 * Default constructor.
+	 */
+	public QualityGovernor() {
+		this.setTargetFps(30);
+	}
+
+	/**
+	 * Sets frame rate whose period frame times are measured against.
+	 */
+	public void setTargetFps(int fps) {
+		this.budgetNanos = (long) (1000000000L / fps *
+		                           QualityGovernor.BUDGET_FRACTION);
+		this.resetWindow();
+	}
+
+	/**
+	 * Sets lowest level governor may step down to. LEVEL_MAX disables
+	 * adaptation.
+	 *
+	 * @return true if current level changed.
+	 */
+	public boolean setMinLevel(int minLevel) {
+		this.minLevel = Math.max(QualityGovernor.LEVEL_MIN,
+		                         Math.min(minLevel, QualityGovernor.LEVEL_MAX));
+		this.resetWindow();
+		if (this.level < this.minLevel) {
+			this.level = this.minLevel;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether current frame should end with glFinish() and be
+	 * recorded as finished. Called once per frame, never true while
+	 * adaptation is disabled.
+	 */
+	public boolean isFinishFrame() {
+		if (this.minLevel == QualityGovernor.LEVEL_MAX ||
+		    --this.framesToFinish > 0) {
+			return false;
+		}
+		this.framesToFinish = QualityGovernor.FINISH_FRAMES;
+		return true;
+	}
+
+	/**
+	 * Records duration of one frame.
+	 *
+	 * @param frameNanos
+	 *            Frame duration in nanoseconds.
+	 * @param isFinished
+	 *            Frame ended with glFinish(), duration includes GPU time.
+	 * @return true if level changed and quality settings should be reapplied.
+	 */
+	public boolean onFrame(long frameNanos, boolean isFinished) {
+		if (isFinished) {
+			this.finishedNanos += frameNanos;
+			++this.finishedFrames;
+		} else {
+			this.windowNanos += frameNanos;
+		}
+		if (++this.windowFrames < QualityGovernor.WINDOW_FRAMES) {
+			return false;
+		}
+
+		final int cpuFrames = this.windowFrames - this.finishedFrames;
+		long mean = cpuFrames > 0 ? this.windowNanos / cpuFrames : 0;
+		if (this.finishedFrames > 0) {
+			mean = Math.max(mean, this.finishedNanos / this.finishedFrames);
+		}
+		this.windowNanos = this.finishedNanos = 0;
+		this.windowFrames = this.finishedFrames = 0;
+		if (mean > this.budgetNanos * QualityGovernor.DOWN_THRESHOLD) {
+			this.fastWindows = 0;
+			if (this.level > this.minLevel) {
+				--this.level;
+				return true;
+			}
+		} else if (mean < this.budgetNanos * QualityGovernor.UP_THRESHOLD) {
+			if (++this.fastWindows >= QualityGovernor.UP_WINDOWS &&
+			    this.level < QualityGovernor.LEVEL_MAX) {
+				this.fastWindows = 0;
+				++this.level;
+				return true;
+			}
+		} else {
+			this.fastWindows = 0;
+		}
+		return false;
+	}
+
+	public int getLevel() {
+		return this.level;
+	}
+
+	/**
+	 * Scales user selected points per spline, never below 2.
+	 */
+	public int getSplineVertexCount(int preferred) {
+		return Math.max(2, Math.round(preferred *
+		       QualityGovernor.SPLINE_VERTEX_FACTORS[this.level]));
+	}
+
+	public float getBranchProbability(float preferred) {
+		return preferred * QualityGovernor.BRANCH_FACTORS[this.level];
+	}
+
+	public boolean isKnotsEnabled() {
+		return this.level >= QualityGovernor.KNOTS_LEVEL_MIN;
+	}
+
+	/**
+	 * Offscreen resolution relative to the surface.
+	 */
+	public float getRenderScale() {
+		return QualityGovernor.RENDER_SCALES[this.level];
+	}
+
+	private void resetWindow() {
+		this.windowNanos = this.finishedNanos = 0;
+		this.windowFrames = this.finishedFrames = 0;
+		this.fastWindows = 0;
+	}
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+/**
+ * Small, unsynchronized SplitMix64 generator. Each instance is meant to be
+ * owned by a single thread, e.g. one per flower, and split() derives
+ * independent child generators. Same seed always yields the same sequence.
+ *
+ * SplitMix64: Steele, Lea, Flood - Fast Splittable Pseudorandom Number
+ * Generators (OOPSLA 2014).
+ */
+public final class RandomSource {
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	private long state;
+
+	/**
+	 * Creates generator seeded from current time.
+	 */
+	public RandomSource() {
+		this(System.nanoTime() ^
+		     System.currentTimeMillis() * RandomSource.GOLDEN_GAMMA);
+	}
+
+	public RandomSource(long seed) {
+		this.state = seed;
+	}
+
+	public void setSeed(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * Generates next 64 random bits.
+	 */
+	public long nextLong() {
+		long z = (this.state += RandomSource.GOLDEN_GAMMA);
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Generates random value between [0, 1).
+	 */
+	public double nextDouble() {
+		return (this.nextLong() >>> 11) * RandomSource.DOUBLE_UNIT;
+	}
+
+	/**
+	 * Generates random value between [min, max).
+	 */
+	public float nextFloat(float min, float max) {
+		return min + (float) (this.nextDouble() * (max - min));
+	}
+
+	/**
+	 * Returns a new generator seeded from this one. Sequences of parent and
+	 * child do not overlap in practice.
+	 */
+	public RandomSource split() {
+		return new RandomSource(this.nextLong());
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import com.givanse.flowords.R;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Requests frames from a GLSurfaceView in RENDERMODE_WHEN_DIRTY at a
+ * target frame rate instead of display refresh rate. Once the renderer
+ * reports a frame without visible change, rate drops to IDLE_FPS until
+ * something moves again. Runs on the main thread.
+ */
+public final class RenderScheduler implements Runnable {
+
+	private static final int IDLE_FPS = 5;
+
+	private final Context context;
+	private final GLSurfaceView view;
+	private final Renderer renderer;
+	private final Handler handler;
+	private int targetFps = 30;
+	private long nextFrameTime;                  /* uptimeMillis of next frame */
+	private boolean isRunning;
+
+	/**
+	 * Default constructor.
+	 */
+	public RenderScheduler(Context context, GLSurfaceView view,
+	                       Renderer renderer) {
+		this.context = context;
+		this.view = view;
+		this.renderer = renderer;
+		this.handler = new Handler(context.getMainLooper());
+	}
+
+	/**
+	 * Switches view to on demand rendering and requests first frame.
+	 */
+	public void start() {
+		if (this.isRunning) {
+			return;
+		}
+		this.isRunning = true;
+		this.view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+		this.nextFrameTime = SystemClock.uptimeMillis();
+		this.handler.post(this);
+	}
+
+	public void stop() {
+		this.isRunning = false;
+		this.handler.removeCallbacks(this);
+	}
+
+	@Override
+	public void run() {
+		if (!this.isRunning) {
+			return;
+		}
+		this.view.requestRender();
+
+		final int fps = this.renderer.isAnimating() ?
+		                this.targetFps : RenderScheduler.IDLE_FPS;
+		final long now = SystemClock.uptimeMillis();
+		// Keep a steady cadence, but never try to catch up on missed frames.
+		this.nextFrameTime = Math.max(this.nextFrameTime + 1000 / fps,
+		                              now + 1);
+		if (this.nextFrameTime > now + 1000 / fps) {
+			this.nextFrameTime = now + 1000 / fps;
+		}
+		this.handler.postAtTime(this, this.nextFrameTime);
+	}
+
+	/**
+	 * Updates target frame rate from given preferences.
+	 */
+	public void setPreferences(SharedPreferences prefs) {
+		String key = this.context.getString(R.string.key_general_frame_rate);
+		this.targetFps = Integer.parseInt(prefs.getString(key, "30"));
+	}
+
+}
@@ -17,18 +17,20 @@ package com.givanse.flowords.engine;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReference;
 import com.givanse.flowords.R;
 import com.givanse.flowords.engine.flowers.FlowerObjects;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.graphics.Color;
 import android.graphics.PointF;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.Handler;
 import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.widget.Toast;
 
 /**
@@ -37,6 +39,12 @@ import android.widget.Toast;
 public final class Renderer implements GLSurfaceView.Renderer {
 	
 	private static final int UPDATE_RATE = 5000;              /* Milliseconds */
+	private static final int OVERLAY_RATE = 1000;             /* Milliseconds */
+	private static final int LOG_RATE = 10000;                /* Milliseconds */
+	private static final String LOG_TAG = "FrameProfiler";
+	private static final int GRID_CELLS = 10;     /* As in shader_background_vs */
+	private static final float GRID_LINE_WIDTH = 2f;               /* Pixels */
+	private static final float GRID_LINE_SHADE = .98f;
 	private static final int BYTES_PER_FLOAT = 4;
 	private static final int VERTEX_COLOR_ATTRIBUTES = 4;      /* Color: RGBA */
 	
@@ -45,6 +53,14 @@ public final class Renderer implements GLSurfaceView.Renderer {
 	private ByteBuffer buffVerticesCoords; 
 	private HelperFrameBuffer helperFrameBffr = new HelperFrameBuffer();
 	private FloatBuffer buffBckdColors;       /* Buffer for background colors */
+	                                       /* GPU copies of the above buffers */
+	private final HelperVertexBuffer vboVerticesCoords = new HelperVertexBuffer();
+	private final HelperVertexBuffer vboBckdColors = new HelperVertexBuffer();
+	private boolean isBckdColorsDirty = true;   /* Upload on next frame */
+	/* One background grid cell, repeated over the screen */
+	private final int[] gridTextureId = { -1 };
+	private ByteBuffer buffGrid;
+	private int gridExtent;          /* Surface size grid was baked for */
 
 	/* Animated offset time value for iterating between src and dst */
 	private long offsetTime;
@@ -53,22 +69,78 @@ public final class Renderer implements GLSurfaceView.Renderer {
 	private PointF offsetDst = new PointF();
 	private final PointF offsetFinal = new PointF();
 	private final PointF offsetScroll = new PointF();
+	private final PointF offsetLast = new PointF();  /* Of previous frame */
+	/* Whether last frame differed visibly, read by RenderScheduler */
+	private volatile boolean isAnimating = true;
+	private final RandomSource random = new RandomSource();
 	
 	/* Shaders */
 	                                    /* Copies offscreen texture on screen */
 	private final HelperShader shdrCopyOffscreen = new HelperShader();
+	                                 /* Darkens screen corners, direct path */
+	private final HelperShader shdrVignette = new HelperShader();
 	private final HelperShader shdrBckndGradient = new HelperShader();
+
+	/* Shader handles resolved after linking, indexed by H_* */
+	private static final String[] HANDLES_COPY = { "aPosition" };
+	private static final String[] HANDLES_BCKD = { "aPosition", "aColor",
+	                                               "uAspectRatio", "uOffset" };
+	private static final int H_POSITION = 0;
+	private static final int H_COLOR = 1;
+	private static final int H_ASPECT_RATIO = 2;
+	private static final int H_OFFSET = 3;
+	private int[] hndlCopyOffscreen;
+	private int[] hndlVignette;
+	private int[] hndlBckndGradient;
 	
 	private final boolean[] isShaderCompilerSupported = new boolean[1];	
 	private int width, height;                 /* Surface/Screen dimensions */
+	private boolean isContextNew = true;  /* Resources need a size applied */
 	private Context context;
-	private FlowerObjects flowerObjects = new FlowerObjects();
+	private final GLState glState = new GLState();   /* Elides redundant calls */
+	private FlowerObjects flowerObjects = new FlowerObjects(this.glState);
+	private final ShaderCache shaderCache;        /* Linked program binaries */
+	private final SharedContextFactory contextFactory;       /* May be null */
+
+	/* Frame timing, enabled through debug preferences */
+	private final FrameProfiler profiler = new FrameProfiler();
+	private ProfilerOverlay profilerOverlay;       /* Created once enabled */
+	private final StringBuilder profilerLog = new StringBuilder();
+	private boolean isOverlayEnabled, isLogEnabled;
+	private long overlayTime, logTime;
+
+	/* Adapts quality to measured frame times */
+	private final QualityGovernor governor = new QualityGovernor();
+	private boolean isQualityDirty = true;     /* Apply on next frame */
+	private float renderScale = 1f;           /* Of current offscreen FBO */
+
+	/* Preferences, published by setPreferences(), applied on GL thread */
+	private final AtomicReference<Settings> pendingSettings =
+			                               new AtomicReference<Settings>();
+	private final AtomicReference<Long> pendingSeed =
+			                                   new AtomicReference<Long>();
+	private Settings settings;                 /* null until first frame */
+
+	/* Offscreen FBO preferences */
+	private float prefRenderScale;          /* Between [0.5, 1], 0 for auto */
+	private int fboFormat = GLES20.GL_RGBA;
+	private int fboType = GLES20.GL_UNSIGNED_BYTE;
+	private boolean prefDirect = true;       /* Direct path when possible */
+	private boolean isDirect;                 /* Skip FBO and copy pass */
 	
 	/**
 	 * Default constructor.
+	 * 
+	 * @param context
+	 *            Context to read resources and preferences from.
+	 * @param contextFactory
+	 *            Factory the GL contexts are created with, null if they
+	 *            are not shared with other engines.
 	 */
-	public Renderer(Context context) {
+	public Renderer(Context context, SharedContextFactory contextFactory) {
 		this.context = context;
+		this.contextFactory = contextFactory;
+		this.shaderCache = new ShaderCache(context.getFilesDir());
 
 		this.buffVerticesCoords = 
 				         ByteBuffer.allocateDirect(Screen.VERTICES_COORDS.length);
@@ -87,7 +159,7 @@ public final class Renderer implements GLSurfaceView.Renderer {
 	}
 
 	@Override
-	public synchronized void onDrawFrame(GL10 unused) {
+	public void onDrawFrame(GL10 unused) {
 		// If shader compiler is not supported, clear screen buffer only.
 		if (this.isShaderCompilerSupported[0] == false) {
 			GLES20.glClearColor(0, 0, 0, 1);
@@ -95,14 +167,32 @@ public final class Renderer implements GLSurfaceView.Renderer {
 			return;
 		}
 
+		// Latest preferences and seed, if any were published since.
+		Settings settings = this.pendingSettings.getAndSet(null);
+		if (settings != null) {
+			this.applySettings(settings);
+		}
+		Long seed = this.pendingSeed.getAndSet(null);
+		if (seed != null) {
+			this.random.setSeed(seed);
+			this.flowerObjects.setSeed(this.random.nextLong());
+		}
+
+		long frameStart = System.nanoTime();
+		this.profiler.begin(FrameProfiler.PHASE_FRAME);
+		if (this.isQualityDirty) {
+			this.applyQuality();
+		}
+
 		// Update offset.
+		this.profiler.begin(FrameProfiler.PHASE_OFFSET);
 		long time = SystemClock.uptimeMillis();
 		// If time passed generate new target.
 		if (time - this.offsetTime > Renderer.UPDATE_RATE) {
 			this.offsetTime = time;
 			this.offsetSrc.set(this.offsetDst);
-			this.offsetDst.x = -1f + (float) (Math.random() * 2f);
-			this.offsetDst.y = -1f + (float) (Math.random() * 2f);
+			this.offsetDst.x = this.random.nextFloat(-1f, 1f);
+			this.offsetDst.y = this.random.nextFloat(-1f, 1f);
 		}
 		
 		// Calculate final offset values.
@@ -112,80 +202,303 @@ public final class Renderer implements GLSurfaceView.Renderer {
 				              (this.offsetDst.x - this.offsetSrc.x);
 		this.offsetFinal.y = this.offsetScroll.y + this.offsetSrc.y + t *
 				              (this.offsetDst.y - this.offsetSrc.y);
+		this.profiler.end(FrameProfiler.PHASE_OFFSET);
 
 		// Disable unneeded rendering flags.
-		GLES20.glDisable(GLES20.GL_CULL_FACE);
-		GLES20.glDisable(GLES20.GL_BLEND);
-		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+		this.glState.disable(GLES20.GL_CULL_FACE);
+		this.glState.disable(GLES20.GL_BLEND);
+		this.glState.disable(GLES20.GL_DEPTH_TEST);
 
-		// Set render target to FBO.
-		this.helperFrameBffr.bindFrameBuffer();
-		this.helperFrameBffr.bindTexture(0); // TODO: textureID 0
+		// Grow flowers and bake root layer before binding render target.
+		if (this.isDirect) {
+			this.flowerObjects.setTargetSize(this.width, this.height);
+		} else {
+			this.flowerObjects.setTargetSize(this.getRenderWidth(),
+					                         this.getRenderHeight());
+		}
+		this.flowerObjects.update(this.offsetFinal, this.profiler);
+
+		if (this.isDirect) {
+			// Render straight into screen buffer, vignette applied last.
+			this.glState.bindFramebuffer(0);
+			this.glState.viewport(0, 0, this.width, this.height);
+		} else {
+			// Set render target to FBO, texture 0 is attached once created.
+			this.glState.bindFramebuffer(
+					                  this.helperFrameBffr.getFrameBuffer());
+			this.glState.viewport(0, 0, this.getRenderWidth(),
+					              this.getRenderHeight());
+		}
 
+		this.profiler.begin(FrameProfiler.PHASE_BACKGROUND);
 		this.renderBackgroundGradient();
+		this.profiler.end(FrameProfiler.PHASE_BACKGROUND);
 		
-		this.flowerObjects.drawFrame(this.offsetFinal);       /* Render scene */
+		                                                      /* Render scene */
+		this.flowerObjects.drawFrame(this.offsetFinal, this.profiler);
+
+		this.profiler.begin(FrameProfiler.PHASE_COPY);
+		if (this.isDirect) {
+			this.renderVignette();
+		} else {
+			this.renderCopyOffscreen();
+		}
+		this.profiler.end(FrameProfiler.PHASE_COPY);
+
+		// Now and then wait for the GPU, so the governor sees fill rate
+		// bound frames too and not only the cost of issuing them.
+		final boolean isFinished = this.governor.isFinishFrame();
+		if (isFinished) {
+			GLES20.glFinish();
+		}
+		this.profiler.end(FrameProfiler.PHASE_FRAME);
+		if (this.governor.onFrame(System.nanoTime() - frameStart,
+				                  isFinished)) {
+			this.isQualityDirty = true;
+		}
+
+		// Offset moved by at least half a pixel or flowers grow on screen.
+		float movedX = Math.abs(this.offsetFinal.x - this.offsetLast.x) *
+				       this.width * .5f;
+		float movedY = Math.abs(this.offsetFinal.y - this.offsetLast.y) *
+				       this.height * .5f;
+		this.offsetLast.set(this.offsetFinal);
+		this.isAnimating = movedX >= .5f || movedY >= .5f ||
+				           this.flowerObjects.isAnimating() ||
+				           this.isOverlayEnabled;
 
-		// Copy FBO to screen buffer.
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0); // TODO: handleID 0
-		GLES20.glViewport(0, 0, this.width, this.height);
+		if (this.profiler.isEnabled()) {
+			this.reportProfiler(time);
+		}
+	}
+
+	/**
+	 * Refreshes and draws the overlay, writes timings to log and starts a
+	 * new measurement window every LOG_RATE milliseconds.
+	 */
+	private void reportProfiler(long time) {
+		if (this.isOverlayEnabled) {
+			if (this.profilerOverlay == null) {
+				this.profilerOverlay = new ProfilerOverlay(this.glState);
+				this.profilerOverlay.onSurfaceCreated(this.context,
+						                             this.shaderCache);
+			}
+			if (time - this.overlayTime > Renderer.OVERLAY_RATE) {
+				this.overlayTime = time;
+				this.profilerOverlay.update(this.profiler);
+			}
+			this.profilerOverlay.draw(this.width, this.height,
+					                  this.vboVerticesCoords);
+		}
+		if (time - this.logTime > Renderer.LOG_RATE) {
+			this.logTime = time;
+			if (this.isLogEnabled) {
+				this.profilerLog.setLength(0);
+				this.profiler.appendReport(this.profilerLog);
+				this.profilerLog.append("\ngl calls issued ")
+				                .append(this.glState.getIssuedCount())
+				                .append(", elided ")
+				                .append(this.glState.getElidedCount());
+				Log.i(Renderer.LOG_TAG, this.profilerLog.toString());
+			}
+			this.profiler.clear();
+			this.glState.resetCounters();
+		}
+	}
+
+	/**
+	 * Copies FBO to screen buffer applying the vignette.
+	 */
+	private void renderCopyOffscreen() {
+		final GLState state = this.glState;
+		state.bindFramebuffer(0);
+		state.viewport(0, 0, this.width, this.height);
 		
-		this.shdrCopyOffscreen.useProgram();
-		int aPositionHndl = this.shdrCopyOffscreen.getAUHandleId("aPosition");
-		GLES20.glVertexAttribPointer(aPositionHndl,
-				  				     Screen.VERTEX_SIZE_COORDS,
-									 GLES20.GL_BYTE, 
-									 false, 
-									 0,
-									 this.buffVerticesCoords);
-		GLES20.glEnableVertexAttribArray(aPositionHndl);
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 
-        		             this.helperFrameBffr.getTexture(0)); // TODO: id 0
+		state.useProgram(this.shdrCopyOffscreen);
+		int aPositionHndl = this.hndlCopyOffscreen[Renderer.H_POSITION];
+		this.vboVerticesCoords.bind(state);
+		state.vertexAttribPointer(aPositionHndl,
+				  				  Screen.VERTEX_SIZE_COORDS,
+								  GLES20.GL_BYTE, 
+								  false, 
+								  0,
+								  0);
+		state.bindTexture(0, this.helperFrameBffr.getTexture(0));
+        /* this.buffVerticesCoords - 4 vertices */
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	}
+
+	/**
+	 * Multiplies screen buffer by the vignette, one full screen quad with no
+	 * texture fetch. Used by the direct path which has no copy pass.
+	 */
+	private void renderVignette() {
+		final GLState state = this.glState;
+		state.useProgram(this.shdrVignette);
+		int aPositionHndl = this.hndlVignette[Renderer.H_POSITION];
+		this.vboVerticesCoords.bind(state);
+		state.vertexAttribPointer(aPositionHndl,
+				                  Screen.VERTEX_SIZE_COORDS,
+				                  GLES20.GL_BYTE,
+				                  false,
+				                  0,
+				                  0);
+		state.enable(GLES20.GL_BLEND);
+		state.blendFunc(GLES20.GL_ZERO, GLES20.GL_SRC_COLOR); /* dst * src */
         /* this.buffVerticesCoords - 4 vertices */
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		state.disable(GLES20.GL_BLEND);
+	}
+
+	/**
+	 * Applies current quality level to flowers and selects render path. The
+	 * direct path is used only at full resolution, otherwise the offscreen
+	 * FBO is reallocated if its scale or format changed. Called from GL
+	 * thread.
+	 */
+	private void applyQuality() {
+		this.isQualityDirty = false;
+		this.flowerObjects.setQuality(this.governor);
+		float scale = this.getRenderScale();
+		this.isDirect = this.prefDirect && scale == 1f;
+		if (this.isDirect) {
+			this.helperFrameBffr.reset();          /* Not needed, free memory */
+			this.renderScale = -1f;
+		} else if (scale != this.renderScale) {
+			this.setFrameBuffer();
+		}
+		// Deleting and creating objects above binds them directly.
+		this.glState.invalidate();
+	}
+
+	/**
+	 * (Re)allocates offscreen FBO using current render scale and format.
+	 */
+	private void setFrameBuffer() {
+		this.renderScale = this.getRenderScale();
+		this.helperFrameBffr.setTexturesPrefs(this.getRenderWidth(),
+				                              this.getRenderHeight(), 1,
+				                              this.fboFormat, this.fboType);
+		this.helperFrameBffr.bindFrameBuffer();
+		this.helperFrameBffr.bindTexture(0);
+	}
+
+	/**
+	 * Offscreen resolution relative to the surface: preferred or automatic
+	 * scale, further reduced by the quality governor.
+	 */
+	private float getRenderScale() {
+		float scale = this.prefRenderScale;
+		if (scale == 0f) {
+			// Automatic, render at most ~320 dpi, the art is soft anyway.
+			int dpi = this.context.getResources().getDisplayMetrics()
+					                             .densityDpi;
+			scale = Math.min(1f, Math.max(.5f, (float)
+					         DisplayMetrics.DENSITY_XHIGH / Math.max(dpi, 1)));
+		}
+		return scale * this.governor.getRenderScale();
+	}
+
+	private int getRenderWidth() {
+		return Math.max(1, Math.round(this.width * this.renderScale));
+	}
+
+	private int getRenderHeight() {
+		return Math.max(1, Math.round(this.height * this.renderScale));
 	}
 
 	public void renderBackgroundGradient() {
-		this.shdrBckndGradient.useProgram();
-		int uAspectRatio = this.shdrBckndGradient.getAUHandleId("uAspectRatio");
+		final GLState state = this.glState;
+		final HelperShader shader = this.shdrBckndGradient;
+		state.useProgram(shader);
+		final int[] hndl = this.hndlBckndGradient;
+		int uAspectRatio = hndl[Renderer.H_ASPECT_RATIO];
 		float aspectX = (float) Math.min(width, height) / height;
 		float aspectY = (float) Math.min(width, height) / width;
-		int uOffset = this.shdrBckndGradient.getAUHandleId("uOffset");
-		GLES20.glUniform2f(uAspectRatio, aspectX, aspectY);
-		GLES20.glUniform2f(uOffset, offsetFinal.x, offsetFinal.y);
-		
-		int uLineWidth = this.shdrBckndGradient.getAUHandleId("uLineWidth");
-		GLES20.glUniform2f(uLineWidth, 
-						   aspectX * 40f / this.width,
-				           aspectY * 40f / this.height);
+		int uOffset = hndl[Renderer.H_OFFSET];
+		state.uniform2f(shader, uAspectRatio, aspectX, aspectY);
+		// Grid repeats every cell, wrap offset to keep texture coordinates
+		// small for mediump precision.
+		float cellX = 1f / (aspectX * Renderer.GRID_CELLS);
+		float cellY = 1f / (aspectY * Renderer.GRID_CELLS);
+		state.uniform2f(shader, uOffset, offsetFinal.x % cellX,
+				        offsetFinal.y % cellY);
+
+		state.bindTexture(0, this.gridTextureId[0]);
 		
 		/* Pass in position information */
-		int aPositionHndl = this.shdrBckndGradient.getAUHandleId("aPosition");
-		GLES20.glVertexAttribPointer(aPositionHndl, 
-									 Screen.VERTEX_SIZE_COORDS, 
-									 GLES20.GL_BYTE, 
-									 false, 
-									 0,                       /* stryde bytes */
-									 this.buffVerticesCoords);
-		GLES20.glEnableVertexAttribArray(aPositionHndl);
+		int aPositionHndl = hndl[Renderer.H_POSITION];
+		this.vboVerticesCoords.bind(state);
+		state.vertexAttribPointer(aPositionHndl, 
+								  Screen.VERTEX_SIZE_COORDS, 
+								  GLES20.GL_BYTE, 
+								  false, 
+								  0,                          /* stryde bytes */
+								  0);
 		
 		/* Pass in color information */
-		int aColorHndl = this.shdrBckndGradient.getAUHandleId("aColor");
+		int aColorHndl = hndl[Renderer.H_COLOR];
 		int vertexSize = 4;            /* Attribute - color: RGBA, 4 elements */
-		GLES20.glVertexAttribPointer(aColorHndl, 
-				 					 vertexSize, 
-								     GLES20.GL_FLOAT, 
-								     false, 
-								     0,                       /* stryde bytes */
-								     this.buffBckdColors);
-		GLES20.glEnableVertexAttribArray(aColorHndl);
+		if (this.isBckdColorsDirty) {
+			this.vboBckdColors.setData(state, this.buffBckdColors,
+					                   this.buffBckdColors.capacity() *
+					                   Renderer.BYTES_PER_FLOAT,
+					                   GLES20.GL_STATIC_DRAW);
+			this.isBckdColorsDirty = false;
+		} else {
+			this.vboBckdColors.bind(state);
+		}
+		state.vertexAttribPointer(aColorHndl, 
+				 				  vertexSize, 
+								  GLES20.GL_FLOAT, 
+								  false, 
+								  0,                          /* stryde bytes */
+								  0);
 		
 		/* this.buffBckdColors     - 4 color attributes */
 		/* this.buffScreenVertices - 4 vertices         */
 		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 	}
 	
+	/**
+	 * Bakes one grid cell into a repeating luminance texture, multiplied
+	 * with the background gradient. Cells are square, max(width, height) /
+	 * (2 * GRID_CELLS) pixels wide, texture size is the next power of two.
+	 * Skipped while the texture already holds cells for current size.
+	 */
+	private void bakeBackgroundGrid() {
+		if (Math.max(this.width, this.height) == this.gridExtent) {
+			return;
+		}
+		this.gridExtent = Math.max(this.width, this.height);
+		float cellPixels = (float) Math.max(this.width, this.height) /
+				           (2 * Renderer.GRID_CELLS);
+		int size = 16;
+		while (size < cellPixels && size < 256) {
+			size *= 2;
+		}
+		float lineTexels = Renderer.GRID_LINE_WIDTH * size / cellPixels;
+
+		if (this.buffGrid == null || this.buffGrid.capacity() < size * size) {
+			this.buffGrid = ByteBuffer.allocateDirect(size * size);
+		}
+		byte line = (byte) Math.round(Renderer.GRID_LINE_SHADE * 255);
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				boolean isLine = x + .5f < lineTexels || y + .5f < lineTexels;
+				this.buffGrid.put(y * size + x, isLine ? line : (byte) 255);
+			}
+		}
+		this.buffGrid.position(0);
+
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, this.gridTextureId[0]);
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE,
+				            size, size, 0, GLES20.GL_LUMINANCE,
+				            GLES20.GL_UNSIGNED_BYTE, this.buffGrid);
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+	}
+
 	@Override
 	public void onSurfaceChanged(GL10 unused, int width, int height) {
 		// If shader compiler is not supported set viewport size only.
@@ -194,10 +507,20 @@ public final class Renderer implements GLSurfaceView.Renderer {
 			return;
 		}
 
+		// Same size on the same context, e.g. after a visibility change.
+		if (width == this.width && height == this.height &&
+		    !this.isContextNew) {
+			return;
+		}
+		this.isContextNew = false;
+
 		this.width = width;
 		this.height = height;
-		this.helperFrameBffr.setTexturesPrefs(this.width, this.height, 1);
+		this.renderScale = -1f;          /* Forces FBO reallocation */
+		this.applyQuality();
+		this.bakeBackgroundGrid();
 		this.flowerObjects.onSurfaceChanged(this.width, this.height);
+		this.glState.invalidate();
 	}
 
 	@Override
@@ -221,13 +544,65 @@ public final class Renderer implements GLSurfaceView.Renderer {
 			return;
 		}
 
+		// Objects of the old context are gone, sizes are applied again.
+		this.isContextNew = true;
+		this.gridExtent = 0;
+		this.helperFrameBffr.forget();
+		this.vboVerticesCoords.init();
+		this.vboVerticesCoords.setData(this.buffVerticesCoords,
+				                       this.buffVerticesCoords.capacity(),
+				                       GLES20.GL_STATIC_DRAW);
+		HelperVertexBuffer.unbind();
+		this.vboBckdColors.init();
+		this.isBckdColorsDirty = true;
+
+		GLES20.glGenTextures(1, this.gridTextureId, 0);
+		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, this.gridTextureId[0]);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_REPEAT);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_REPEAT);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+		this.shaderCache.onSurfaceCreated();
+		// Both passes call vignette(), defined once and prepended here.
+		String vignette = context.getString(R.string.shader_vignette);
 		this.shdrCopyOffscreen.setProgram(
 				                   context.getString(R.string.shader_copy_vs),
-				                   context.getString(R.string.shader_copy_fs));
+				                   vignette +
+				                   context.getString(R.string.shader_copy_fs),
+				                   this.shaderCache);
+		this.shdrVignette.setProgram(
+				                   context.getString(R.string.shader_copy_vs),
+				                   vignette +
+				                   context.getString(R.string.shader_vignette_fs),
+				                   this.shaderCache);
 		this.shdrBckndGradient.setProgram(
 				             context.getString(R.string.shader_background_vs),
-				             context.getString(R.string.shader_background_fs));
-		flowerObjects.onSurfaceCreated(context);
+				             context.getString(R.string.shader_background_fs),
+				             this.shaderCache);
+		this.hndlCopyOffscreen =
+				 this.shdrCopyOffscreen.getHandlesIds(Renderer.HANDLES_COPY);
+		this.hndlVignette =
+				      this.shdrVignette.getHandlesIds(Renderer.HANDLES_COPY);
+		this.hndlBckndGradient =
+				 this.shdrBckndGradient.getHandlesIds(Renderer.HANDLES_BCKD);
+		ShareGroup shareGroup = null;
+		if (this.contextFactory != null) {
+			shareGroup = this.contextFactory.getShareGroup();
+		}
+		if (shareGroup == null) {
+			shareGroup = new ShareGroup();        /* Context of its own */
+		}
+		flowerObjects.onSurfaceCreated(context, this.shaderCache, shareGroup);
+		if (this.profilerOverlay != null) {
+			this.profilerOverlay.onSurfaceCreated(context, this.shaderCache);
+		}
+		// New context starts from defaults, setup above bound objects.
+		this.glState.invalidate();
 	}
 
 	/**
@@ -243,76 +618,93 @@ public final class Renderer implements GLSurfaceView.Renderer {
 		this.offsetScroll.set(xOffset * 2f, yOffset * 2f);
 	}*/
 
+	/**
+	 * Tells whether last drawn frame changed visibly compared to the one
+	 * before it. Safe to call from any thread.
+	 */
+	public boolean isAnimating() {
+		return this.isAnimating;
+	}
+
+	/**
+	 * Seeds offset animation and flower growth so a run can be reproduced.
+	 * Applied from the GL thread at the start of next frame.
+	 * 
+	 * @param seed
+	 *            Seed value.
+	 */
+	public void setSeed(long seed) {
+		this.pendingSeed.set(seed);
+	}
+
+	/**
+	 * Releases objects shared with other engines. Called once the engine
+	 * is destroyed, renderer is not used anymore.
+	 */
+	public void release() {
+		this.flowerObjects.release();
+	}
+
 	/**
 	 * Updates preference values from provided ShaderPrefence instance.
+	 * Values are parsed on the calling thread, the GL thread picks up the
+	 * latest snapshot at the start of next frame.
 	 * 
 	 * @param prefs
 	 *            New preferences.
 	 */
-	public synchronized void setPreferences(SharedPreferences prefs) {
-		// Get general preferences values.
-		String key = context.getString(R.string.key_general_flower_count);
-		int flowerCount = Integer.parseInt(prefs.getString(key, "2"));
-		
-		key = context.getString(R.string.key_general_spline_quality);
-		int splineQuality = prefs.getInt(key, 10);
-		
-		key = context.getString(R.string.key_general_branch_propability);
-		float branchPropability = (float) prefs.getInt(key, 5) / 10;
-		
-		key = context.getString(R.string.key_general_zoom);
-		float zoomLevel = (float) prefs.getInt(key, 4) / 10;
-
-		// Get color preference values.
-		key = context.getString(R.string.key_colors_scheme);
-		int colorScheme = Integer.parseInt(prefs.getString(key, "1"));
-		float bckdTop[], bckdBottom[], flowerColors[][] = new float[2][];
-		switch (colorScheme) {
-		case 1:
-			bckdTop = ColorSchemes.SUMMER_BG_TOP;
-			bckdBottom = ColorSchemes.SUMMER_BG_BOTTOM;
-			flowerColors[0] = ColorSchemes.SUMMER_PLANT_1;
-			flowerColors[1] = ColorSchemes.SUMMER_PLANT_2;
-			break;
-		case 2:
-			bckdTop = ColorSchemes.AUTUMN_BG_TOP;
-			bckdBottom = ColorSchemes.AUTUMN_BG_BOTTOM;
-			flowerColors[0] = ColorSchemes.AUTUMN_PLANT_1;
-			flowerColors[1] = ColorSchemes.AUTUMN_PLANT_2;
-			break;
-		case 3:
-			bckdTop = ColorSchemes.WINTER_BG_TOP;
-			bckdBottom = ColorSchemes.WINTER_BG_BOTTOM;
-			flowerColors[0] = ColorSchemes.WINTER_PLANT_1;
-			flowerColors[1] = ColorSchemes.WINTER_PLANT_2;
-			break;
-		case 4:
-			bckdTop = ColorSchemes.SPRING_BG_TOP;
-			bckdBottom = ColorSchemes.SPRING_BG_BOTTOM;
-			flowerColors[0] = ColorSchemes.SPRING_PLANT_1;
-			flowerColors[1] = ColorSchemes.SPRING_PLANT_2;
-			break;
-		default:
-			bckdTop = Util.getColor(
-				 prefs.getInt(context.getString(R.string.key_colors_bg_top),
-				 Color.BLACK));
-			bckdBottom = Util.getColor(
-				 prefs.getInt(context.getString(R.string.key_colors_bg_bottom),
-				 Color.BLACK));
-			flowerColors[0] = Util.getColor(
-				 prefs.getInt(context.getString(R.string.key_colors_flower_1),
-				 Color.WHITE));
-			flowerColors[1] = Util.getColor(
-				 prefs.getInt(context.getString(R.string.key_colors_flower_2),
-				 Color.WHITE));
-			break;
-		}
-
-		this.buffBckdColors.put(bckdTop).put(bckdBottom)
-					  .put(bckdTop).put(bckdBottom)
-				      .position(0);
-		this.flowerObjects.setPreferences(flowerCount, flowerColors, splineQuality,
-				                      branchPropability, zoomLevel);
+	public void setPreferences(SharedPreferences prefs) {
+		this.pendingSettings.set(Settings.read(this.context, prefs));
+	}
+
+	/**
+	 * Applies preferences which differ from the ones applied before.
+	 * Called from GL thread.
+	 */
+	private void applySettings(Settings settings) {
+		final Settings last = this.settings;
+		this.settings = settings;
+
+		this.isOverlayEnabled = settings.isOverlayEnabled;
+		this.isLogEnabled = settings.isLogEnabled;
+		this.profiler.setEnabled(this.isOverlayEnabled || this.isLogEnabled);
+
+		if (last == null || settings.targetFps != last.targetFps) {
+			this.governor.setTargetFps(settings.targetFps);
+		}
+		if (last == null || settings.minQualityLevel != last.minQualityLevel) {
+			this.isQualityDirty |= 
+					      this.governor.setMinLevel(settings.minQualityLevel);
+		}
+
+		if (settings.isFrameBufferChanged(last)) {
+			this.prefRenderScale = settings.renderScale;
+			this.fboFormat = settings.fboFormat;
+			this.fboType = settings.fboType;
+			this.prefDirect = settings.isDirect;
+			this.renderScale = -1f;      /* Forces FBO reallocation */
+			this.isQualityDirty = true;
+		}
+		if (last == null ||
+		    settings.isRootCacheEnabled != last.isRootCacheEnabled) {
+			this.flowerObjects.setLayerCacheEnabled(
+					                              settings.isRootCacheEnabled);
+		}
+
+		if (settings.isBackgroundChanged(last)) {
+			this.buffBckdColors.put(settings.bckdTop).put(settings.bckdBottom)
+					           .put(settings.bckdTop).put(settings.bckdBottom)
+					           .position(0);
+			this.isBckdColorsDirty = true;
+		}
+		if (settings.isFlowersChanged(last)) {
+			this.flowerObjects.setPreferences(settings.flowerCount,
+					                          settings.flowerColors,
+					                          settings.splineQuality,
+					                          settings.branchProbability,
+					                          settings.zoomLevel);
+			this.isQualityDirty = true;  /* Scaled by current quality level */
+		}
 	}
 
 }
@@ -0,0 +1,195 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import java.util.Arrays;
+import com.givanse.flowords.R;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.opengl.GLES20;
+
+/**
+ * Immutable snapshot of renderer preferences. Parsed on the thread
+ * preferences change on, handed over to the GL thread as a whole and
+ * compared there with the snapshot applied before, so only what changed
+ * is rebuilt. Arrays are never modified after read().
+ */
+public final class Settings {
+
+	/* Flowers */
+	public final int flowerCount;
+	public final float[][] flowerColors;
+	public final int splineQuality;
+	public final float branchProbability;
+	public final float zoomLevel;
+	public final boolean isRootCacheEnabled;
+
+	/* Background gradient */
+	public final float[] bckdTop;
+	public final float[] bckdBottom;
+
+	/* Frame rate and quality bounds */
+	public final int targetFps;
+	public final int minQualityLevel;
+
+	/* Render path and offscreen FBO */
+	public final float renderScale;         /* Between [0.5, 1], 0 for auto */
+	public final int fboFormat;
+	public final int fboType;
+	public final boolean isDirect;           /* Direct path when possible */
+
+	/* Debug */
+	public final boolean isOverlayEnabled;
+	public final boolean isLogEnabled;
+
+	private Settings(Context context, SharedPreferences prefs) {
+		// Get general preferences values.
+		String key = context.getString(R.string.key_general_flower_count);
+		this.flowerCount = Integer.parseInt(prefs.getString(key, "2"));
+
+		key = context.getString(R.string.key_general_spline_quality);
+		this.splineQuality = prefs.getInt(key, 10);
+
+		key = context.getString(R.string.key_general_branch_propability);
+		this.branchProbability = (float) prefs.getInt(key, 5) / 10;
+
+		key = context.getString(R.string.key_general_zoom);
+		this.zoomLevel = (float) prefs.getInt(key, 4) / 10;
+
+		key = context.getString(R.string.key_general_root_cache);
+		this.isRootCacheEnabled = prefs.getBoolean(key, true);
+
+		// Get debug preference values.
+		key = context.getString(R.string.key_debug_overlay);
+		this.isOverlayEnabled = prefs.getBoolean(key, false);
+		key = context.getString(R.string.key_debug_log);
+		this.isLogEnabled = prefs.getBoolean(key, false);
+
+		// Get frame rate and quality bounds.
+		key = context.getString(R.string.key_general_frame_rate);
+		this.targetFps = Integer.parseInt(prefs.getString(key, "30"));
+		key = context.getString(R.string.key_general_min_quality);
+		this.minQualityLevel = Integer.parseInt(prefs.getString(key, "2"));
+
+		// Get offscreen FBO resolution and pixel format.
+		key = context.getString(R.string.key_general_render_scale);
+		this.renderScale = Float.parseFloat(prefs.getString(key, "0"));
+		key = context.getString(R.string.key_general_pixel_format);
+		switch (Integer.parseInt(prefs.getString(key, "8888"))) {
+		case 565:
+			this.fboFormat = GLES20.GL_RGB;
+			this.fboType = GLES20.GL_UNSIGNED_SHORT_5_6_5;
+			break;
+		case 4444:
+			this.fboFormat = GLES20.GL_RGBA;
+			this.fboType = GLES20.GL_UNSIGNED_SHORT_4_4_4_4;
+			break;
+		default:
+			this.fboFormat = GLES20.GL_RGBA;
+			this.fboType = GLES20.GL_UNSIGNED_BYTE;
+			break;
+		}
+		key = context.getString(R.string.key_general_render_path);
+		this.isDirect = prefs.getString(key, "direct").equals("direct");
+
+		// Get color preference values.
+		key = context.getString(R.string.key_colors_scheme);
+		int colorScheme = Integer.parseInt(prefs.getString(key, "1"));
+		float flowerColors[][] = new float[2][];
+		switch (colorScheme) {
+		case 1:
+			this.bckdTop = ColorSchemes.SUMMER_BG_TOP;
+			this.bckdBottom = ColorSchemes.SUMMER_BG_BOTTOM;
+			flowerColors[0] = ColorSchemes.SUMMER_PLANT_1;
+			flowerColors[1] = ColorSchemes.SUMMER_PLANT_2;
+			break;
+		case 2:
+			this.bckdTop = ColorSchemes.AUTUMN_BG_TOP;
+			this.bckdBottom = ColorSchemes.AUTUMN_BG_BOTTOM;
+			flowerColors[0] = ColorSchemes.AUTUMN_PLANT_1;
+			flowerColors[1] = ColorSchemes.AUTUMN_PLANT_2;
+			break;
+		case 3:
+			this.bckdTop = ColorSchemes.WINTER_BG_TOP;
+			this.bckdBottom = ColorSchemes.WINTER_BG_BOTTOM;
+			flowerColors[0] = ColorSchemes.WINTER_PLANT_1;
+			flowerColors[1] = ColorSchemes.WINTER_PLANT_2;
+			break;
+		case 4:
+			this.bckdTop = ColorSchemes.SPRING_BG_TOP;
+			this.bckdBottom = ColorSchemes.SPRING_BG_BOTTOM;
+			flowerColors[0] = ColorSchemes.SPRING_PLANT_1;
+			flowerColors[1] = ColorSchemes.SPRING_PLANT_2;
+			break;
+		default:
+			this.bckdTop = Util.getColor(
+				 prefs.getInt(context.getString(R.string.key_colors_bg_top),
+				 Color.BLACK));
+			this.bckdBottom = Util.getColor(
+				 prefs.getInt(context.getString(R.string.key_colors_bg_bottom),
+				 Color.BLACK));
+			flowerColors[0] = Util.getColor(
+				 prefs.getInt(context.getString(R.string.key_colors_flower_1),
+				 Color.WHITE));
+			flowerColors[1] = Util.getColor(
+				 prefs.getInt(context.getString(R.string.key_colors_flower_2),
+				 Color.WHITE));
+			break;
+		}
+		this.flowerColors = flowerColors;
+	}
+
+	/**
+	 * Parses current preference values.
+	 */
+	public static Settings read(Context context, SharedPreferences prefs) {
+		return new Settings(context, prefs);
+	}
+
+	/**
+	 * Tells whether flower preferences differ, flowers are updated if so.
+	 */
+	public boolean isFlowersChanged(Settings other) {
+		return other == null ||
+		       this.flowerCount != other.flowerCount ||
+		       this.splineQuality != other.splineQuality ||
+		       this.branchProbability != other.branchProbability ||
+		       this.zoomLevel != other.zoomLevel ||
+		       !Arrays.deepEquals(this.flowerColors, other.flowerColors);
+	}
+
+	/**
+	 * Tells whether background gradient colors differ.
+	 */
+	public boolean isBackgroundChanged(Settings other) {
+		return other == null ||
+		       !Arrays.equals(this.bckdTop, other.bckdTop) ||
+		       !Arrays.equals(this.bckdBottom, other.bckdBottom);
+	}
+
+	/**
+	 * Tells whether render path or offscreen FBO preferences differ, the
+	 * FBO is reallocated if so.
+	 */
+	public boolean isFrameBufferChanged(Settings other) {
+		return other == null ||
+		       this.renderScale != other.renderScale ||
+		       this.fboFormat != other.fboFormat ||
+		       this.fboType != other.fboType ||
+		       this.isDirect != other.isDirect;
+	}
+
+}
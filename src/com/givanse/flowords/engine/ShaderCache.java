@@ -0,0 +1,306 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Keeps linked shader programs on disk as driver specific binaries, so
+ * programs can be restored without compiling after the wallpaper starts or
+ * its context is lost. Binaries are filed under a directory named after a
+ * hash of GL_RENDERER, GL_VERSION and the system build, files under a hash
+ * of the shader sources. Binaries of other drivers are deleted once a
+ * context is created. Does nothing without OpenGL ES 3.0, callers then
+ * compile from source as before.
+ */
+public final class ShaderCache {
+
+	private static final String LOG_TAG = "ShaderCache";
+	private static final String DIRECTORY = "programs";
+
+	private final File root;
+	private File directory;                     /* null if cache disabled */
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param filesDir
+	 *            App private directory binaries are stored under.
+	 */
+	public ShaderCache(File filesDir) {
+		this.root = new File(filesDir, ShaderCache.DIRECTORY);
+	}
+
+	/**
+	 * Called once a context has been created, before any program is loaded.
+	 * Checks binary support and picks directory for current driver.
+	 */
+	public void onSurfaceCreated() {
+		this.directory = null;
+		if (!Binaries.isSupported()) {
+			return;
+		}
+		final String driver = ShaderCache.hash(
+				                    GLES20.glGetString(GLES20.GL_RENDERER),
+				                    GLES20.glGetString(GLES20.GL_VERSION),
+				                    Build.FINGERPRINT);
+		if (driver == null) {
+			return;
+		}
+
+		// Binaries of an older driver never load again.
+		final File[] drivers = this.root.listFiles();
+		if (drivers != null) {
+			for (File dir : drivers) {
+				if (!dir.getName().equals(driver)) {
+					ShaderCache.delete(dir);
+				}
+			}
+		}
+		final File directory = new File(this.root, driver);
+		if (directory.isDirectory() || directory.mkdirs()) {
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * Creates program from a stored binary.
+	 *
+	 * @return Linked program handle, or 0 if there is no usable binary.
+	 */
+	public int load(String vertexSource, String fragmentSource) {
+		final File file = this.getFile(vertexSource, fragmentSource);
+		if (file == null || !file.isFile()) {
+			return 0;
+		}
+
+		int format;
+		ByteBuffer binary;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			format = in.readInt();
+			byte[] bytes = new byte[(int) file.length() - 4];
+			in.readFully(bytes);
+			binary = ByteBuffer.allocateDirect(bytes.length);
+			binary.put(bytes).position(0);
+		} catch (IOException e) {
+			Log.w(ShaderCache.LOG_TAG, "Could not read " + file, e);
+			file.delete();
+			return 0;
+		} finally {
+			ShaderCache.close(in);
+		}
+
+		final int program = Binaries.load(format, binary);
+		if (program == 0) {
+			// Rejected by the driver, compile once more and replace it.
+			file.delete();
+		}
+		return program;
+	}
+
+	/**
+	 * Marks a program about to be linked so the driver keeps its binary.
+	 */
+	public void onCreateProgram(int program) {
+		if (this.directory != null) {
+			Binaries.setRetrievable(program);
+		}
+	}
+
+	/**
+	 * Stores binary of a linked program created from given sources.
+	 */
+	public void store(String vertexSource, String fragmentSource,
+	                  int program) {
+		final File file = this.getFile(vertexSource, fragmentSource);
+		if (file == null) {
+			return;
+		}
+		final int[] format = { 0 };
+		final ByteBuffer binary = Binaries.get(program, format);
+		if (binary == null) {
+			return;
+		}
+
+		final byte[] bytes = new byte[binary.remaining()];
+		binary.get(bytes);
+		// Engines link the same sources on GL threads of their own, each
+		// writes a temp file of its own.
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp",
+			                           file.getParentFile());
+			out = new DataOutputStream(new FileOutputStream(temp));
+			out.writeInt(format[0]);
+			out.write(bytes);
+			out.close();
+			out = null;
+			// Never leave a partially written binary behind.
+			if (!temp.renameTo(file)) {
+				temp.delete();
+			}
+		} catch (IOException e) {
+			Log.w(ShaderCache.LOG_TAG, "Could not write " + file, e);
+			if (temp != null) {
+				temp.delete();
+			}
+		} finally {
+			ShaderCache.close(out);
+		}
+	}
+
+	private File getFile(String vertexSource, String fragmentSource) {
+		if (this.directory == null) {
+			return null;
+		}
+		final String name = ShaderCache.hash(vertexSource, fragmentSource);
+		return name == null ? null : new File(this.directory, name);
+	}
+
+	/**
+	 * Returns hex SHA-1 of given strings, or null if unavailable.
+	 */
+	private static String hash(String... values) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String value : values) {
+				digest.update(String.valueOf(value).getBytes("UTF-8"));
+				digest.update((byte) 0);
+			}
+			StringBuilder builder = new StringBuilder();
+			for (byte b : digest.digest()) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+				       .append(Character.forDigit(b & 0xF, 16));
+			}
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				ShaderCache.delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void close(java.io.Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing left to do.
+			}
+		}
+	}
+
+	/**
+	 * OpenGL ES 3.0 program binary entry points, kept apart so older
+	 * platforms never resolve GLES30.
+	 */
+	private static final class Binaries {
+
+		/**
+		 * Returns true if current context can save and load binaries.
+		 */
+		static boolean isSupported() {
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+				return false;
+			}
+			String version = GLES20.glGetString(GLES20.GL_VERSION);
+			if (version == null || !version.startsWith("OpenGL ES 3")) {
+				return false;
+			}
+			int[] formats = { 0 };
+			GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS,
+			                     formats, 0);
+			return formats[0] > 0;
+		}
+
+		static void setRetrievable(int program) {
+			GLES30.glProgramParameteri(program,
+			                      GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+			                      GLES20.GL_TRUE);
+		}
+
+		/**
+		 * Returns linked program, or 0 if driver rejected the binary.
+		 */
+		static int load(int format, ByteBuffer binary) {
+			final int program = GLES20.glCreateProgram();
+			if (program == 0) {
+				return 0;
+			}
+			GLES30.glProgramBinary(program, format, binary, binary.capacity());
+			final int[] linkStatus = { 0 };
+			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS,
+			                      linkStatus, 0);
+			if (linkStatus[0] != GLES20.GL_TRUE) {
+				GLES20.glDeleteProgram(program);
+				return 0;
+			}
+			return program;
+		}
+
+		/**
+		 * Returns binary of a linked program and writes its format.
+		 */
+		static ByteBuffer get(int program, int[] format) {
+			final int[] length = { 0 };
+			GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH,
+			                      length, 0);
+			if (length[0] <= 0) {
+				return null;
+			}
+			final ByteBuffer binary = ByteBuffer.allocateDirect(length[0]);
+			// Drop errors of earlier calls, only this one is checked. Bounded,
+			// a lost context may keep reporting an error.
+			int errors = 0;
+			while (GLES20.glGetError() != GLES20.GL_NO_ERROR && errors < 8) {
+				++errors;
+			}
+			GLES30.glGetProgramBinary(program, length[0], length, 0,
+			                          format, 0, binary);
+			if (GLES20.glGetError() != GLES20.GL_NO_ERROR ||
+			    length[0] <= 0) {
+				return null;
+			}
+			binary.limit(length[0]);
+			return binary;
+		}
+	}
+
+}
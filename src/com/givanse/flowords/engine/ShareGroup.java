@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.microedition.khronos.egl.EGLContext;
+
+/**
+ * Set of live EGL contexts sharing their objects, together with the
+ * objects registered as shared between them. Only objects nothing modifies
+ * after creation are registered, e.g. textures uploaded once. Programs keep
+ * uniform values and frame buffers are never shared, so they stay per
+ * context.
+ *
+ * Registered objects stay valid until the last context is destroyed, the
+ * registry is cleared then. Callers should synchronize on the group when
+ * they look up an object and register it if it is missing.
+ */
+public final class ShareGroup {
+
+	private final ArrayList<EGLContext> contexts =
+			                                    new ArrayList<EGLContext>();
+	private final HashMap<String, Object> objects =
+			                                 new HashMap<String, Object>();
+
+	/**
+	 * Returns object registered under given key, or null if there is none.
+	 */
+	public synchronized Object getObject(String key) {
+		return this.objects.get(key);
+	}
+
+	/**
+	 * Registers an object for every context of the group. Object has to be
+	 * complete, glFinish() called, before other contexts may use it.
+	 */
+	public synchronized void putObject(String key, Object object) {
+		this.objects.put(key, object);
+	}
+
+	synchronized void add(EGLContext context) {
+		this.contexts.add(context);
+	}
+
+	/**
+	 * Removes a destroyed context.
+	 * 
+	 * @return true if it was the last one, the group is gone.
+	 */
+	synchronized boolean remove(EGLContext context) {
+		this.contexts.remove(context);
+		if (this.contexts.isEmpty()) {
+			this.objects.clear();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a live context of the group to share new contexts with.
+	 */
+	synchronized EGLContext getContext() {
+		return this.contexts.get(0);
+	}
+
+}
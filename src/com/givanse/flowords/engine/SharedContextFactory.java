@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import android.opengl.GLSurfaceView;
+import android.util.Log;
+
+/**
+ * Creates GLES 2.0 contexts sharing objects with contexts of other engines,
+ * e.g. the wallpaper and its preview, so immutable objects exist only once.
+ * Each engine needs a factory of its own, it remembers which ShareGroup the
+ * context of its engine belongs to.
+ *
+ * A context that can not be shared with the current group, e.g. because
+ * its config does not match, starts a group of its own.
+ */
+public final class SharedContextFactory
+                   implements GLSurfaceView.EGLContextFactory {
+
+	private static final String LOG_TAG = "SharedContextFactory";
+	private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+	private static final int[] ATTRIBS = {
+			            SharedContextFactory.EGL_CONTEXT_CLIENT_VERSION, 2,
+			            EGL10.EGL_NONE };
+
+	private static ShareGroup joinable;       /* New contexts join it first */
+	private volatile ShareGroup group;         /* Of current context, if any */
+
+	@Override
+	public EGLContext createContext(EGL10 egl, EGLDisplay display,
+	                                EGLConfig config) {
+		synchronized (SharedContextFactory.class) {
+			ShareGroup group = SharedContextFactory.joinable;
+			EGLContext context = EGL10.EGL_NO_CONTEXT;
+			if (group != null) {
+				context = egl.eglCreateContext(display, config,
+				                               group.getContext(),
+				                               SharedContextFactory.ATTRIBS);
+			}
+			if (context == EGL10.EGL_NO_CONTEXT) {
+				group = new ShareGroup();
+				context = egl.eglCreateContext(display, config,
+				                               EGL10.EGL_NO_CONTEXT,
+				                               SharedContextFactory.ATTRIBS);
+				if (context == EGL10.EGL_NO_CONTEXT) {
+					return context;        /* GLSurfaceView reports error */
+				}
+				if (SharedContextFactory.joinable == null) {
+					SharedContextFactory.joinable = group;
+				}
+			}
+			group.add(context);
+			this.group = group;
+			return context;
+		}
+	}
+
+	@Override
+	public void destroyContext(EGL10 egl, EGLDisplay display,
+	                           EGLContext context) {
+		synchronized (SharedContextFactory.class) {
+			final ShareGroup group = this.group;
+			if (group != null && group.remove(context) &&
+			    SharedContextFactory.joinable == group) {
+				SharedContextFactory.joinable = null;
+			}
+			this.group = null;
+		}
+		if (!egl.eglDestroyContext(display, context)) {
+			Log.w(SharedContextFactory.LOG_TAG,
+			      "eglDestroyContext failed: " + egl.eglGetError());
+		}
+	}
+
+	/**
+	 * Returns group of the current context, null if there is none. Called
+	 * on GL thread once the context is created.
+	 */
+	public ShareGroup getShareGroup() {
+		return this.group;
+	}
+
+}
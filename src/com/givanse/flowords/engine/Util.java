@@ -23,13 +23,6 @@ public class Util {
 		return (float) Math.sqrt(dx * dx + dy * dy);
 	}
 
-	/**
-	 * Generates random value between [min, max).
-	 */
-	public static float random(float min, float max) {
-		return min + (float) (Math.random() * (max - min));
-	}
-	
 
 	/**
 	 * Converts a color value to an array of floats.
@@ -15,22 +15,20 @@
 package com.givanse.flowords.engine.flowers;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.Vector;
 import com.givanse.flowords.R;
+import com.givanse.flowords.engine.FrameProfiler;
+import com.givanse.flowords.engine.GLState;
 import com.givanse.flowords.engine.HelperShader;
+import com.givanse.flowords.engine.HelperVertexBuffer;
+import com.givanse.flowords.engine.QualityGovernor;
 import com.givanse.flowords.engine.Screen;
-import com.givanse.flowords.engine.Util;
-import com.givanse.flowords.engine.flowers.Spline.CTRL_POINT_ID;
+import com.givanse.flowords.engine.ShaderCache;
+import com.givanse.flowords.engine.ShareGroup;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.PointF;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
+import android.opengl.GLES30;
+import android.os.Build;
 import android.os.SystemClock;
 
 /**
@@ -38,288 +36,309 @@ import android.os.SystemClock;
  */
 public final class FlowerObjects {
 
+	/* Spline vertex transforms, scale x, y and translate x, y */
+	private static final float[] TRANSFORM_NONE = { 1f, 1f, 0f, 0f };
+
 	private final PointF aspectRatio = new PointF();
-	
-	/* Flower movement directions, coords are stored in pairs */
-	private final PointF[] directionPts = new PointF[Screen.DIRS_TOTAL];
 
-	private final Vector<Knot> knotsList = new Vector<Knot>();
-	private final Vector<Spline> splinesList = new Vector<Spline>();
-	private Flower[] flowersList = new Flower[0];
+	/* Shared with engines of same aspect ratio, synchronize on shared.
+	 * Acquired once surface size is known, see onSurfaceChanged(). */
+	private SharedSimulation shared;
+	private FlowerSimulation simulation;
+	private SimulationThread simulationThread;  /* Started with simulation */
+	private SimulationFrame frame;              /* Drawn by this frame */
+	private final SplineTessellator splineTessellator = new SplineTessellator();
+	private final KnotBatch knotBatch = new KnotBatch();
+
+	/* Settled roots of all flowers, drawn from one shared texture */
+	private final RootLayerCache layerCache;
+	private final SplineTessellator layerTessellator = new SplineTessellator();
+	private final float[] layerRegion = new float[4];
+	private final float[] layerTextureScale = new float[2];
+	private final float[] layerTransform = new float[4];
+	private boolean isLayerCacheEnabled = true;
 
 	/* Shaders */
 	private final HelperShader shaderSpline = new HelperShader();
 	private final HelperShader shaderFlowerTexture = new HelperShader();
+	private final HelperShader shaderLayer = new HelperShader();
+
+	/* Shader handles resolved after linking, indexed by constants below */
+	private static final String[] HANDLES_SPLINE = { "aPosition", "aNormal",
+	                                                 "aWidth", "aColor",
+	                                                 "uAspectRatio",
+	                                                 "uTransform" };
+	private static final int SPLINE_POSITION = 0;
+	private static final int SPLINE_NORMAL = 1;
+	private static final int SPLINE_WIDTH = 2;
+	private static final int SPLINE_COLOR = 3;
+	private static final int SPLINE_ASPECT_RATIO = 4;
+	private static final int SPLINE_TRANSFORM = 5;
+	private static final String[] HANDLES_KNOT = { "aPosition", "aKnot",
+	                                               "aScale", "aColor",
+	                                               "uAspectRatio" };
+	private static final int KNOT_POSITION = 0;
+	private static final int KNOT_KNOT = 1;
+	private static final int KNOT_SCALE = 2;
+	private static final int KNOT_COLOR = 3;
+	private static final int KNOT_ASPECT_RATIO = 4;
+	private static final String[] HANDLES_LAYER = { "aPosition", "uRect",
+	                                                "uTextureScale" };
+	private static final int LAYER_POSITION = 0;
+	private static final int LAYER_RECT = 1;
+	private static final int LAYER_TEXTURE_SCALE = 2;
+	private int[] hndlSpline;
+	private int[] hndlKnot;
+	private int[] hndlLayer;
 
 	/* Texture */
+	private static final String SPRITE_KEY = "FlowerObjects.sprite";
 	private final int flowerTextureId[] = { -1 };        /* Flower texture ID */
+	private boolean isSpriteUploaded;       /* Knots are skipped until then */
+	private ShareGroup shareGroup;        /* Sprite texture is shared in it */
 	private ByteBuffer bufferTexture;             /* Texture rendering buffer */
-
-    /* Values set through user preferences. */
-	private FloatBuffer bufferSpline;              /* Used for spline quality */
-	private int splineVertexCount;                 /* Used for Spline quality */
-	private float zoomLvl;
-	private float branchPropability;                  /* Value between [0, 1] */
+	                                          /* GPU copy of bufferTexture */
+	private final HelperVertexBuffer bufferQuad = new HelperVertexBuffer();
+	                                   /* Streamed knot instances or quads */
+	private final HelperVertexBuffer bufferKnots = new HelperVertexBuffer();
+
+	                             /* Streamed vertices of the spline layer */
+	private final HelperVertexBuffer bufferSpline = new HelperVertexBuffer();
+	                                     /* Vertices of a layer being baked */
+	private final HelperVertexBuffer bufferLayer = new HelperVertexBuffer();
+
+	/* User preferences, scaled down by current quality level */
+	private int flowerCount;
+	private float[][] flowerColors;
+	private float zoomLevel;
+	private int splineQuality;
+	private float branchProbability;
+	private float branchProbabilityScaled;
+	private boolean isKnotsEnabled = true;
+
+	private final GLState glState;
 	
 	/**
 	 * Default constructor.
+	 * 
+	 * @param glState
+	 *            State cache all frame rendering goes through.
 	 */
-	public FlowerObjects() {
+	public FlowerObjects(GLState glState) {
+		this.glState = glState;
+		this.layerCache = new RootLayerCache(glState);
 		/* Not intuitive at all, but both arrays are equal. */
 		//final byte[] textureCoordinates = { -1, 1, -1, -1, 1, 1, 1, -1 };
 		final byte[] textureCoordinates = Screen.VERTICES_COORDS;
 		this.bufferTexture = 
 				           ByteBuffer.allocateDirect(textureCoordinates.length);
 		this.bufferTexture.put(textureCoordinates).position(0);
-		
-		for (int i = 0; i < directionPts.length; ++i) {
-			directionPts[i] = new PointF();
-		}
 	}
 
 	/**
-	 * Sets branch values based on given parameters.
+	 * Renders every knot packed for this frame with a single draw.
 	 */
-	private void setBranchVals(Branch branchArg, PointF startPos, int startDir,
-			               	   int rotateDir, float len) {
-
-		float maxBranchWidth = Branch.WIDTH_MIN + 
-							   this.zoomLvl *
-							   (Branch.WIDTH_MAX - Branch.WIDTH_MIN);
-		PointF dirPt = directionPts[(8 + startDir) % 8];
-		PointF normalPt = directionPts[(8 + startDir - 2 * rotateDir) % 8];
-		Spline spline = branchArg.getNextSpline();
-		spline.setWidthStart(maxBranchWidth);
-		spline.setWidthEnd(0f);
-		spline.curveCtrlPoints(startPos, dirPt, len, normalPt, false);
-		startPos = spline.getCtrlPoint(CTRL_POINT_ID.FOUR);
-
-		float rand = Util.random(0, 3);
-		if (rand < 1) {
-			Knot point = branchArg.getNextKnot();
-			point.setPosition(startPos);
-			point.setRandomRotationSin();
-			point.setRandomRotationCos();
+	private void renderFlowersTextures() {
+		final int knotCount = this.knotBatch.getKnotCount();
+		if (knotCount == 0) {
+			return;
 		}
-		if (rand >= 1) {
-			spline.setWidthEnd(maxBranchWidth / 2);
-			dirPt = directionPts[(8 + startDir + 2 * rotateDir) % 8];
-			normalPt = directionPts[(8 + startDir) % 8];
-			spline = branchArg.getNextSpline();
-			spline.setWidthStart(maxBranchWidth / 2);
-			spline.setWidthEnd(0f);
-			spline.curveCtrlPoints(startPos, dirPt, len, normalPt, false);
-
-			Knot point = branchArg.getNextKnot();
-			point.setPosition(spline.getCtrlPoint(CTRL_POINT_ID.FOUR));
-			point.setRandomRotationSin();
-			point.setRandomRotationCos();
+		final GLState state = this.glState;
+		if (!this.isSpriteUploaded && !this.shareSprite()) {
+			return;
 		}
-		if (rand >= 2) {
-			dirPt = directionPts[(8 + startDir - rotateDir) % 8];
-			normalPt = directionPts[(8 + startDir + rotateDir) % 8];
-			spline = branchArg.getNextSpline();
-			spline.setWidthStart(maxBranchWidth / 2);
-			spline.setWidthEnd(0f);
-			spline.curveCtrlPoints(startPos, dirPt, len * .5f, normalPt, false);
-
-			Knot point = branchArg.getNextKnot();
-			point.setPosition(spline.getCtrlPoint(CTRL_POINT_ID.FOUR));
-			point.setRandomRotationSin();
-			point.setRandomRotationCos();
+
+		final HelperShader shader = this.shaderFlowerTexture;
+		state.useProgram(shader);
+		final int[] hndl = this.hndlKnot;
+		int uAspectRatio = hndl[FlowerObjects.KNOT_ASPECT_RATIO];
+		int aPosition = hndl[FlowerObjects.KNOT_POSITION];
+		int aKnot = hndl[FlowerObjects.KNOT_KNOT];
+		int aScale = hndl[FlowerObjects.KNOT_SCALE];
+		int aColor = hndl[FlowerObjects.KNOT_COLOR];
+
+		state.uniform2f(shader, uAspectRatio, aspectRatio.x, aspectRatio.y);
+		state.bindTexture(0, this.flowerTextureId[0]);
+
+		final boolean expanded = this.knotBatch.isExpanded();
+		final int stride;
+		final int instanceOffset;
+		if (expanded) {
+			stride = KnotBatch.VERTEX_STRIDE;
+			instanceOffset = KnotBatch.OFFSET_VERTEX_INSTANCE;
+		} else {
+			/* Quad corners come from the static quad strip. */
+			stride = KnotBatch.INSTANCE_STRIDE;
+			instanceOffset = 0;
+			this.bufferQuad.bind(state);
+			state.vertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0, 0);
 		}
-	}
 
-	private void renderFlowersTextures(Vector<Knot> knotsArg, float[] color,
-			                   PointF offset) {
-
-		this.shaderFlowerTexture.useProgram();
-		int uAspectRatio = this.shaderFlowerTexture.getAUHandleId("uAspectRatio");
-		int uOffset = this.shaderFlowerTexture.getAUHandleId("uOffset");
-		int uScale = this.shaderFlowerTexture.getAUHandleId("uScale");
-		int uRotationM = this.shaderFlowerTexture.getAUHandleId("uRotationM");
-		int uColor = this.shaderFlowerTexture.getAUHandleId("uColor");
-		int aPosition = this.shaderFlowerTexture.getAUHandleId("aPosition");
-
-		GLES20.glUniform2f(uAspectRatio, aspectRatio.x, aspectRatio.y);
-		GLES20.glUniform4fv(uColor, 1, color, 0);
-		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
-				                     this.bufferTexture);
-		GLES20.glEnableVertexAttribArray(aPosition);
-
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, flowerTextureId[0]);
-
-		for (Knot knot: knotsArg) {
-			final float rotationM[] = { knot.getRotationCos(), 
-										knot.getRotationSin(),
-					                    -knot.getRotationSin(), 
-					                    knot.getRotationCos() };
-			GLES20.glUniformMatrix2fv(uRotationM, 1, false, rotationM, 0);
-			GLES20.glUniform2f(uOffset, 
-							   knot.getPosition().x - offset.x,
-							   knot.getPosition().y - offset.y);
-			GLES20.glUniform1f(uScale, knot.getScale());
-			GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		this.bufferKnots.setData(state, this.knotBatch.getBuffer(),
+				                 this.knotBatch.getSizeBytes(),
+				                 GLES20.GL_STREAM_DRAW);
+		if (expanded) {
+			state.vertexAttribPointer(aPosition, 2, GLES20.GL_FLOAT, false,
+					                  stride, KnotBatch.OFFSET_CORNER * 4);
+		}
+		state.vertexAttribPointer(aKnot, 4, GLES20.GL_FLOAT, false, stride,
+				              (instanceOffset + KnotBatch.OFFSET_KNOT) * 4);
+		state.vertexAttribPointer(aScale, 1, GLES20.GL_FLOAT, false, stride,
+				              (instanceOffset + KnotBatch.OFFSET_SCALE) * 4);
+		state.vertexAttribPointer(aColor, 4, GLES20.GL_FLOAT, false, stride,
+				              (instanceOffset + KnotBatch.OFFSET_COLOR) * 4);
+
+		if (expanded) {
+			GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0,
+					            this.knotBatch.getVertexCount());
+		} else {
+			Instancing.drawKnots(aKnot, aScale, aColor, knotCount);
 		}
 	}
 
 	/**
-	 * Animates flower element regarding to current renderTime value.
+	 * OpenGL ES 3.0 instancing entry points, kept apart so older platforms
+	 * never resolve GLES30.
 	 */
-	private void update(Flower flower, long renderTime, PointF offset) {
-		// TODO: it might be best to do scaling during rendering instead.
-		final float rootWidth = Flower.ROOT_WIDTH_MIN +
-								this.zoomLvl * 
-								(Flower.ROOT_WIDTH_MAX - Flower.ROOT_WIDTH_MIN);
-
-		PointF targetPos = flower.getTargetPosition();
-		PointF currentPos = flower.getCurrentPosition();
-		int currentDirIdx = flower.getDirIndex();
-		Root lastElement = flower.getLastRootElement();
-		long additionTime = renderTime;
-		while (renderTime >= lastElement.getStartTime() + lastElement.getDuration()) {
-			Root element = flower.getNextRootElement();
-			element.setStartTime(additionTime);
-			element.setDuration(500 + (long) (Math.random() * 500));
-
-			targetPos.set(Util.random(-.8f, .8f), 
-					      Util.random(-.8f, .8f));
-			targetPos.offset(offset.x, offset.y);
-
-			float minDist = Util.getDistance(currentPos, directionPts[currentDirIdx],
-					                 targetPos);
-			int minDirIndex = currentDirIdx;
-			for (int i = 1; i < 8; ++i) {
-				PointF dir = directionPts[(currentDirIdx + i) % 8];
-				float dist = Util.getDistance(currentPos, dir, targetPos);
-				if (dist < minDist) {
-					minDist = dist;
-					minDirIndex = (currentDirIdx + i) % 8;
-				}
-			}
-
-			final float splineLen = Math.max(Util.random(.3f, .5f),
-					Util.getDistance(currentPos, targetPos) / 2f);
-
-			if (minDirIndex != currentDirIdx) {
-				int k = minDirIndex > currentDirIdx ? 1 : -1;
-				for (int i = currentDirIdx + k; 
-					 i * k <= minDirIndex * k; i += 2 * k) {
-					PointF dir = this.directionPts[i];
-					PointF normal = this.directionPts[(8 + i - 2 * k) % 8];
-					Spline spline = element.getNextSpline();
-					spline.setWidthStart(rootWidth);
-					spline.setWidthEnd(rootWidth);
-					spline.curveCtrlPoints(currentPos, dir, splineLen, 
-							      normal, i == minDirIndex);
-
-					if (Math.random() < branchPropability) {
-						Branch b = element.getCurrentBranch();
-						int branchDir = Math.random() < 0.5 ? -k : k;
-						float branchLen = Math.min(splineLen, .5f) * 
-								          Util.random(.6f, .8f);
-						setBranchVals(b, currentPos, i + branchDir, branchDir,
-								  branchLen);
-					}
-
-					currentPos.set(spline.getCtrlPoint(CTRL_POINT_ID.FOUR));
-				}
-				currentDirIdx = minDirIndex;
-			} else {
-				PointF dir = directionPts[currentDirIdx];
-				Spline spline = element.getNextSpline();
-				spline.setWidthStart(rootWidth);
-				spline.setWidthEnd(rootWidth);
-				spline.setStraight(currentPos, dir, splineLen);
-				
-				if (Math.random() < branchPropability) {
-					Branch b = element.getCurrentBranch();
-					int branchDir = Math.random() < 0.5 ? -1 : 1;
-					float branchLen = Math.min(splineLen, .5f) * 
-							          Util.random(.6f, .8f);
-					setBranchVals(b, currentPos, currentDirIdx + branchDir,
-							  branchDir, branchLen);
-				}
+	private static final class Instancing {
 
-				currentPos.set(spline.getCtrlPoint(CTRL_POINT_ID.FOUR));
+		/**
+		 * Returns true if current context supports instanced arrays.
+		 */
+		static boolean isSupported() {
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+				return false;
 			}
+			String version = GLES20.glGetString(GLES20.GL_VERSION);
+			return version != null && version.startsWith("OpenGL ES 3");
+		}
 
-			additionTime += element.getDuration();
-			lastElement = element;
+		/**
+		 * Draws one quad strip per knot, advancing knot attributes per
+		 * instance.
+		 */
+		static void drawKnots(int aKnot, int aScale, int aColor, int count) {
+			GLES30.glVertexAttribDivisor(aKnot, 1);
+			GLES30.glVertexAttribDivisor(aScale, 1);
+			GLES30.glVertexAttribDivisor(aColor, 1);
+			GLES30.glDrawArraysInstanced(GLES20.GL_TRIANGLE_STRIP, 0, 4, count);
+			GLES30.glVertexAttribDivisor(aKnot, 0);
+			GLES30.glVertexAttribDivisor(aScale, 0);
+			GLES30.glVertexAttribDivisor(aColor, 0);
 		}
-		flower.setDirIndex(currentDirIdx);
 	}
-	
+
 	/**
-	 * Renders splines.
+	 * Renders a range of a tessellated spline strip with a single draw.
+	 * 
+	 * @param buffer
+	 *            Buffer strip vertices were uploaded into.
+	 * @param transform
+	 *            Scale x, y and translate x, y applied to vertex positions.
 	 */
-	private void renderSplines(Vector<Spline> splines, 
-							   float[] color,
-							   PointF offset) {
-		this.shaderSpline.useProgram();
-		int uControlPts = this.shaderSpline.getAUHandleId("uControlPts");
-		int uWidth = this.shaderSpline.getAUHandleId("uWidth");
-		int uBounds = this.shaderSpline.getAUHandleId("uBounds");
-		int uColor = this.shaderSpline.getAUHandleId("uColor");
-		int uAspectRatio = this.shaderSpline.getAUHandleId("uAspectRatio");
-		int aSplinePos = this.shaderSpline.getAUHandleId("aSplinePos");
-
-		GLES20.glUniform2f(uAspectRatio, 
-				           this.aspectRatio.x, this.aspectRatio.y);
-		GLES20.glUniform4fv(uColor, 1, color, 0);
-		GLES20.glVertexAttribPointer(aSplinePos, 2, GLES20.GL_FLOAT, false, 0,
-									 this.bufferSpline);
-		GLES20.glEnableVertexAttribArray(aSplinePos);
-
-		final float[] controlPts = new float[8];
-		float boundX = Spline.WIDTH_MIN +
-					   this.zoomLvl * 
-					   (Spline.WIDTH_MAX - 
-					    Spline.WIDTH_MIN);
-		float boundY = 1f + boundX * this.aspectRatio.y;
-		boundX = 1f + boundX * this.aspectRatio.x;
-
-		for (Spline spline : splines) {
-			int visiblePointCount = 0;
-			for (int i = 0; i < Spline.CTRL_POINTS_TOTAL; ++i) {
-				float x = spline.getCtrlPoint(i).x - offset.x;
-				float y = spline.getCtrlPoint(i).y - offset.y;
-				controlPts[i * 2 + 0] = x;
-				controlPts[i * 2 + 1] = y;
-				if (Math.abs(x) < boundX && Math.abs(y) < boundY) {
-					++visiblePointCount;
-				}
-			}
-			if (visiblePointCount != 0) {
-				GLES20.glUniform2fv(uControlPts, 4, controlPts, 0);
-				GLES20.glUniform2f(uWidth, 
-						          spline.getWidthStart(), spline.getWidthEnd());
-				GLES20.glUniform2f(uBounds, spline.getStart(), spline.getEnd());
-
-				if (spline.getStart() != 0f || spline.getEnd() != 1f) {
-					int startIdx = (int) Math.floor(spline.getStart() *
-							             (splineVertexCount - 1)) * 2;
-					int endIdx = 2 + (int) Math.ceil(spline.getEnd() * 
-							     (splineVertexCount - 1)) * 2;
-					GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 
-										startIdx,
-									    endIdx - startIdx);
-				} else {
-					GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 
-										0,
-										splineVertexCount * 2);
-				}
-			}
+	private void renderSplines(HelperVertexBuffer buffer, int first,
+	                           int count, float[] transform) {
+		if (count == 0) {
+			return;
 		}
+
+		final GLState state = this.glState;
+		final HelperShader shader = this.shaderSpline;
+		state.useProgram(shader);
+		final int[] hndl = this.hndlSpline;
+		int uAspectRatio = hndl[FlowerObjects.SPLINE_ASPECT_RATIO];
+		int aPosition = hndl[FlowerObjects.SPLINE_POSITION];
+		int aNormal = hndl[FlowerObjects.SPLINE_NORMAL];
+		int aWidth = hndl[FlowerObjects.SPLINE_WIDTH];
+		int aColor = hndl[FlowerObjects.SPLINE_COLOR];
+		int uTransform = hndl[FlowerObjects.SPLINE_TRANSFORM];
+
+		state.uniform2f(shader, uAspectRatio,
+				        this.aspectRatio.x, this.aspectRatio.y);
+		state.uniform4fv(shader, uTransform, transform);
+
+		buffer.bind(state);
+		final int stride = SplineTessellator.VERTEX_STRIDE;
+		state.vertexAttribPointer(aPosition, 2, GLES20.GL_FLOAT, false,
+				              stride, SplineTessellator.OFFSET_POSITION * 4);
+		state.vertexAttribPointer(aNormal, 2, GLES20.GL_FLOAT, false,
+				              stride, SplineTessellator.OFFSET_NORMAL * 4);
+		state.vertexAttribPointer(aWidth, 2, GLES20.GL_FLOAT, false,
+				              stride, SplineTessellator.OFFSET_WIDTH * 4);
+		state.vertexAttribPointer(aColor, 4, GLES20.GL_FLOAT, false,
+				              stride, SplineTessellator.OFFSET_COLOR * 4);
+
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, first, count);
 	}
-	
-	private void rebuildFlowers(int flowerCount, float[][] flowerColors) {
-		this.flowersList = new Flower[flowerCount];                    
-        for (int i = 0; i < flowersList.length; i++) {                   
-            flowersList[i] = new Flower();                        
-            flowersList[i].setColor(flowerColors[i]);                     
-        }
+
+	/**
+	 * Renders settled roots of all flowers from the cached layer. Layer
+	 * texture holds premultiplied colors.
+	 */
+	private void renderLayer(PointF offset) {
+		final float[] region = this.layerRegion;
+		this.layerCache.getRegion(region);
+		this.layerCache.getTextureScale(this.layerTextureScale);
+
+		final GLState state = this.glState;
+		final HelperShader shader = this.shaderLayer;
+		state.useProgram(shader);
+		final int[] hndl = this.hndlLayer;
+		int uRect = hndl[FlowerObjects.LAYER_RECT];
+		int uTextureScale = hndl[FlowerObjects.LAYER_TEXTURE_SCALE];
+		int aPosition = hndl[FlowerObjects.LAYER_POSITION];
+
+		state.uniform4f(shader, uRect, region[0] - offset.x,
+				        region[1] - offset.y, region[2], region[3]);
+		state.uniform2fv(shader, uTextureScale, this.layerTextureScale);
+		state.bindTexture(0, this.layerCache.getTextureId());
+
+		this.bufferQuad.bind(state);
+		state.vertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0, 0);
+		state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		state.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+	}
+
+	/**
+	 * Bakes settled roots of every flower into the layer if it is out of
+	 * date. Binds layer frame buffer, caller has to bind its render target
+	 * afterwards.
+	 */
+	private void updateLayer(PointF offset, float marginX, float marginY) {
+		final RootLayerCache cache = this.layerCache;
+		final SimulationFrame frame = this.frame;
+		if (cache.isValid(frame, offset.x, offset.y) ||
+		    !cache.begin(frame, offset.x, offset.y, marginX, marginY)) {
+			return;
+		}
+		// Colors end up premultiplied, as if drawn onto nothing.
+		this.glState.enable(GLES20.GL_BLEND);
+		this.glState.blendFuncSeparate(GLES20.GL_SRC_ALPHA,
+				                       GLES20.GL_ONE_MINUS_SRC_ALPHA,
+				                       GLES20.GL_ONE,
+				                       GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+		// Region around its center maps onto the whole layer viewport.
+		final float[] region = this.layerRegion;
+		cache.getRegion(region);
+		this.layerTessellator.clear();
+		for (int i = 0; i < frame.flowerCount; ++i) {
+			this.layerTessellator.add(frame.settled[i], region[0], region[1],
+					                  region[2], region[3],
+					                  this.aspectRatio.x, this.aspectRatio.y);
+		}
+		final int vertexCount = this.layerTessellator.getVertexCount();
+		this.bufferLayer.setData(this.glState,
+				                 this.layerTessellator.getBuffer(),
+				                 vertexCount * SplineTessellator.VERTEX_STRIDE,
+				                 GLES20.GL_STREAM_DRAW);
+		this.layerTransform[0] = 1f / region[2];
+		this.layerTransform[1] = 1f / region[3];
+		this.renderSplines(this.bufferLayer, 0, vertexCount,
+				           this.layerTransform);
+		cache.end();
+		this.glState.disable(GLES20.GL_BLEND);
 	}
 	
     /**
@@ -327,34 +346,156 @@ public final class FlowerObjects {
      */
 	
 	/**
-	 * Renders flowersList into scene.
+	 * Tells whether settled roots are drawn from the cached layer. Dense
+	 * scenes would rebake it about every frame, they draw them directly.
+	 */
+	private boolean isLayerCached() {
+		return this.isLayerCacheEnabled &&
+		       this.flowerCount <= RootLayerCache.FLOWERS_MAX;
+	}
+
+	/**
+	 * Largest spline half width, in units of the view.
+	 */
+	private float getSplineMargin() {
+		return FlowerStore.SPLINE_WIDTH_MIN +
+			   this.zoomLevel * 
+			   (FlowerStore.SPLINE_WIDTH_MAX - 
+			    FlowerStore.SPLINE_WIDTH_MIN);
+	}
+
+	/**
+	 * Takes latest frame of the simulation thread, asks it to grow flowers
+	 * to current time for the next one and bakes the root layer if it is
+	 * out of date. Has to be called before drawFrame() and before binding
+	 * the render target, so the layer is not drawn into mid frame.
 	 * 
 	 * @param offset
 	 *            Global offset value.
+	 * @param profiler
+	 *            Receives timings of update, gather and cache.
 	 */
-	public void drawFrame(PointF offset) {
-		GLES20.glEnable(GLES20.GL_BLEND);
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-
-		long renderTime = SystemClock.uptimeMillis();
-		for (int i = 0; i < this.flowersList.length; i++) {
-			this.knotsList.clear();
-			this.splinesList.clear();
-
-			Flower flower = this.flowersList[i];
-			this.update(flower, renderTime, offset);
-			flower.setForRenderSplinesKnots(this.splinesList, 
-									this.knotsList,
-									renderTime,
-									this.zoomLvl);
-			this.renderSplines(this.splinesList, flower.getColor(), offset);
-			this.renderFlowersTextures(
-					                 this.knotsList, flower.getColor(), offset);
+	public void update(PointF offset, FrameProfiler profiler) {
+		final long renderTime = SystemClock.uptimeMillis();
+		final boolean isCached = this.isLayerCached();
+
+		final SimulationFrame frame = this.simulationThread.getLatest();
+		if (!frame.isComplete) {
+			// Nothing grown yet, the very first frame is grown inline.
+			synchronized (this.shared) {
+				frame.fill(this.simulation, renderTime, offset.x, offset.y,
+				           isCached);
+			}
 		}
+		if (frame != this.frame) {
+			// Grown on the simulation thread, recorded once it is drawn.
+			profiler.record(FrameProfiler.PHASE_UPDATE, frame.growNanos);
+			profiler.record(FrameProfiler.PHASE_GATHER, frame.gatherNanos);
+			this.frame = frame;
+		}
+		this.simulationThread.request(renderTime, offset.x, offset.y,
+				                      isCached);
+
+		// Frame may predate a cache toggle, drawFrame() follows the frame.
+		if (frame.isCached) {
+			final float margin = this.getSplineMargin();
+			profiler.begin(FrameProfiler.PHASE_CACHE);
+			this.updateLayer(offset, margin * this.aspectRatio.x,
+					         margin * this.aspectRatio.y);
+			profiler.end(FrameProfiler.PHASE_CACHE);
+		} else {
+			this.layerCache.release();
+		}
+	}
 
-		GLES20.glDisable(GLES20.GL_BLEND);
+	/**
+	 * Renders flowers of the frame taken by last update() call.
+	 * 
+	 * @param offset
+	 *            Global offset value.
+	 * @param profiler
+	 *            Receives timings of splines and knots.
+	 */
+	public void drawFrame(PointF offset, FrameProfiler profiler) {
+		this.glState.enable(GLES20.GL_BLEND);
+		this.glState.blendFunc(GLES20.GL_SRC_ALPHA,
+				               GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+		final float aspectX = this.aspectRatio.x;
+		final float aspectY = this.aspectRatio.y;
+
+		// Tessellate splines of all flowers into one strip and pack their
+		// knots into one batch. Settled roots come from the cached layer,
+		// if the frame was gathered for it.
+		final boolean isCached = this.frame.isCached;
+		final GeometrySnapshot snapshot = this.frame.live;
+
+		profiler.begin(FrameProfiler.PHASE_SPLINES);
+		final SplineTessellator tessellator = this.splineTessellator;
+		tessellator.clear();
+		tessellator.add(snapshot, offset.x, offset.y, 1f, 1f,
+		                aspectX, aspectY);
+		profiler.count(FrameProfiler.COUNTER_SPLINES_VISIBLE,
+		               tessellator.getVisibleCount());
+		profiler.count(FrameProfiler.COUNTER_SPLINES_CULLED,
+		               tessellator.getCulledCount());
+		final int vertexCount = tessellator.getVertexCount();
+		if (vertexCount > 0) {
+			this.bufferSpline.setData(this.glState, tessellator.getBuffer(),
+					                  vertexCount * SplineTessellator.VERTEX_STRIDE,
+					                  GLES20.GL_STREAM_DRAW);
+		}
+		if (isCached && !this.layerCache.isEmpty()) {
+			// Live roots of every flower go on top of all settled ones.
+			this.renderLayer(offset);
+		}
+		this.renderSplines(this.bufferSpline, 0, vertexCount,
+				           FlowerObjects.TRANSFORM_NONE);
+		profiler.end(FrameProfiler.PHASE_SPLINES);
+
+		if (this.isKnotsEnabled) {
+			profiler.begin(FrameProfiler.PHASE_KNOTS);
+			this.knotBatch.clear();
+			this.knotBatch.add(snapshot, offset.x, offset.y, 1f, 1f,
+			                   aspectX, aspectY);
+			profiler.count(FrameProfiler.COUNTER_KNOTS_VISIBLE,
+			               this.knotBatch.getKnotCount());
+			profiler.count(FrameProfiler.COUNTER_KNOTS_CULLED,
+			               this.knotBatch.getCulledCount());
+			this.renderFlowersTextures();
+			profiler.end(FrameProfiler.PHASE_KNOTS);
+		}
+
+		this.glState.disable(GLES20.GL_BLEND);
 	}
 	
+	/**
+	 * Sets size of the framebuffer flowers are rendered into, cached root
+	 * layer and spline tessellation density are sized after it.
+	 */
+	public void setTargetSize(int width, int height) {
+		this.layerCache.setTargetSize(width, height);
+		this.splineTessellator.setTargetSize(width, height);
+		this.layerTessellator.setTargetSize(width, height);
+	}
+
+	/**
+	 * Enables drawing settled roots from the cached layer. The layer is
+	 * released on next update() once disabled.
+	 */
+	public void setLayerCacheEnabled(boolean enabled) {
+		this.isLayerCacheEnabled = enabled;
+		this.layerCache.invalidate();
+	}
+
+	/**
+	 * Tells whether flowers drawn by last drawFrame() call are still
+	 * growing on screen, i.e. next frame differs even with the same offset.
+	 */
+	public boolean isAnimating() {
+		return this.splineTessellator.getGrowingCount() > 0;
+	}
+
 	/**
 	 * Called once underlying surface size has changed.
 	 * 
@@ -368,26 +509,74 @@ public final class FlowerObjects {
 		 * Update the aspect ratio.
 		 *   aspectRatio = units of equal length / dimension 
 		 */
-		this.aspectRatio.x = (float) Math.min(width, height) / width;
-		this.aspectRatio.y = (float) Math.min(width, height) / height;
-		
-		/**
-		 * Adjust BASE_COORDS to the new aspect ratio.
-		 */
-		for (int i = 0; i < this.directionPts.length; i++) {
-			PointF directionPt = this.directionPts[i];
-			/* Use base directions, read BASE_COORDS in pairs */
-			directionPt.set(Screen.BASE_COORDS[i * 2 + 0], 
-					        Screen.BASE_COORDS[i * 2 + 1]);
-			
-			/* Scale directions to the new aspect ratio */
-			float lenInv = 1f / directionPt.length();
-			directionPt.x *= this.aspectRatio.x * lenInv;
-			directionPt.y *= this.aspectRatio.y * lenInv;
+		final SharedSimulation shared = this.shared == null ?
+		                    SharedSimulation.acquire(width, height) :
+		                    SharedSimulation.resize(this.shared, width, height);
+		if (shared != this.shared) {
+			this.shared = shared;
+			this.simulation = shared.simulation;
+			this.applyPreferences();
+			if (this.simulationThread == null) {
+				this.simulationThread = new SimulationThread(shared);
+				this.simulationThread.start();
+			} else {
+				this.simulationThread.setShared(shared);
+			}
+		}
+		synchronized (shared) {
+			if (this.aspectRatio.x == this.simulation.getAspectRatioX() &&
+			    this.aspectRatio.y == this.simulation.getAspectRatioY()) {
+				return;
+			}
+			this.aspectRatio.x = this.simulation.getAspectRatioX();
+			this.aspectRatio.y = this.simulation.getAspectRatioY();
+		}
+		this.layerCache.invalidate();
+	}
+
+	/**
+	 * Releases shared simulation, called once the engine is gone.
+	 */
+	public void release() {
+		if (this.simulationThread != null) {
+			this.simulationThread.quit();
+			this.simulationThread = null;
+		}
+		if (this.shared != null) {
+			SharedSimulation.release(this.shared);
+			this.shared = null;
+			this.simulation = null;
 		}
-		for (Flower flower : this.flowersList) {
-			flower.reset();
+	}
+
+	/**
+	 * Switches to sprite texture of the share group, or uploads own one and
+	 * registers it there if there is none yet.
+	 * 
+	 * @return false if sprite is not loaded yet.
+	 */
+	private boolean shareSprite() {
+		final ShareGroup group = this.shareGroup;
+		synchronized (group) {
+			Integer textureId = (Integer) group.getObject(
+					                                  FlowerObjects.SPRITE_KEY);
+			if (textureId == null) {
+				this.glState.bindTexture(0, this.flowerTextureId[0]);
+				if (!FlowerSprite.upload()) {
+					return false;
+				}
+				// Other contexts may sample it only once it is complete.
+				GLES20.glFinish();
+				group.putObject(FlowerObjects.SPRITE_KEY,
+				                Integer.valueOf(this.flowerTextureId[0]));
+			} else if (textureId.intValue() != this.flowerTextureId[0]) {
+				GLES20.glDeleteTextures(1, this.flowerTextureId, 0);
+				this.glState.invalidate();
+				this.flowerTextureId[0] = textureId.intValue();
+			}
 		}
+		this.isSpriteUploaded = true;
+		return true;
 	}
 
 	/**
@@ -395,67 +584,67 @@ public final class FlowerObjects {
 	 * 
 	 * @param context
 	 *            Context to read resources from.
+	 * @param shaderCache
+	 *            Program binary cache, may be null.
+	 * @param shareGroup
+	 *            Group of current context, immutable objects are shared in
+	 *            it.
 	 */
-	public void onSurfaceCreated(Context context) {
+	public void onSurfaceCreated(Context context, ShaderCache shaderCache,
+	                             ShareGroup shareGroup) {
+		this.bufferSpline.init();
+		this.bufferLayer.init();
+		this.bufferKnots.init();
+		this.bufferQuad.init();
+		this.bufferQuad.setData(this.bufferTexture,
+				                this.bufferTexture.capacity(),
+				                GLES20.GL_STATIC_DRAW);
+		HelperVertexBuffer.unbind();
+		this.knotBatch.setExpanded(!Instancing.isSupported());
 		this.shaderSpline.setProgram(
 				                  context.getString(R.string.shader_spline_vs),
-				                  context.getString(R.string.shader_spline_fs));
+				                  context.getString(R.string.shader_spline_fs),
+				                  shaderCache);
 		this.shaderFlowerTexture.setProgram(
 				                 context.getString(R.string.shader_texture_vs),
-				                 context.getString(R.string.shader_texture_fs));
-
-        /**
-          * Flower texture generation made with Bitmap, Canvas and Paint 
-          *   github.com/harism/android_wallpaper_flowers/
-          *   commit/42a0a124315f301db726287db1d0edb225d2ef4c
-          */
-		GLES20.glDeleteTextures(1, flowerTextureId, 0);
+				                 context.getString(R.string.shader_texture_fs),
+				                  shaderCache);
+		this.shaderLayer.setProgram(
+				                   context.getString(R.string.shader_layer_vs),
+				                   context.getString(R.string.shader_layer_fs),
+				                  shaderCache);
+		this.hndlSpline =
+				 this.shaderSpline.getHandlesIds(FlowerObjects.HANDLES_SPLINE);
+		this.hndlKnot = this.shaderFlowerTexture.getHandlesIds(
+				                                     FlowerObjects.HANDLES_KNOT);
+		this.hndlLayer =
+				 this.shaderLayer.getHandlesIds(FlowerObjects.HANDLES_LAYER);
+		// Layer was lost with the old context.
+		this.layerCache.forget();
+
+		// Sprite is generated in the background, uploaded once available
+		// unless another context of the group has done it already. Texture
+		// of the old context is gone with it, or still used by others.
 		GLES20.glGenTextures(1, flowerTextureId, 0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, flowerTextureId[0]);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
-				GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
-				GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
-				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-
-		Bitmap bitmap = Bitmap.createBitmap(256, 256, Bitmap.Config.ARGB_8888);
-		bitmap.eraseColor(Color.BLACK);
-
-		Canvas canvas = new Canvas(bitmap);
-		Paint paint = new Paint();
-		paint.setStyle(Paint.Style.FILL);
-
-		int borderColor = Color.rgb((int) (.8f * 255), 0, 0);
-		int mainColor = Color.rgb(255, 0, 0);
-
-		float leafDist = 1.7f * 128 / 3f;
-		float leafPositions[] = new float[10];
-		for (int i = 0; i < 5; ++i) {
-			double r = Math.PI * 2 * i / 5;
-			leafPositions[i * 2 + 0] = 128 + (float) (Math.sin(r) * leafDist);
-			leafPositions[i * 2 + 1] = 128 + (float) (Math.cos(r) * leafDist);
-		}
-
-		paint.setColor(borderColor);
-		for (int i = 0; i < 5; ++i) {
-			canvas.drawCircle(leafPositions[i * 2 + 0],
-					leafPositions[i * 2 + 1], 48, paint);
+		this.shareGroup = shareGroup;
+		this.isSpriteUploaded = false;
+		FlowerSprite.prepare(context.getCacheDir());
+	}
+	
+	/**
+	 * Restarts growth with all random decisions derived from given seed.
+	 * Ignored before onSurfaceChanged(), there is no simulation yet.
+	 * 
+	 * @param seed
+	 *            Seed for the simulation, see FlowerSimulation.setSeed().
+	 */
+	public void setSeed(long seed) {
+		if (this.shared == null) {
+			return;
 		}
-		paint.setColor(mainColor);
-		for (int i = 0; i < 5; ++i) {
-			canvas.drawCircle(leafPositions[i * 2 + 0],
-					leafPositions[i * 2 + 1], 36, paint);
+		synchronized (this.shared) {
+			this.simulation.setSeed(seed);
 		}
-		paint.setColor(borderColor);
-		canvas.drawCircle(128, 128, 48, paint);
-		paint.setColor(Color.BLACK);
-		canvas.drawCircle(128, 128, 36, paint);
-
-		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-		bitmap.recycle();
 	}
 	
     /**                                                                          
@@ -465,31 +654,57 @@ public final class FlowerObjects {
                                int splineQuality, float branchProbability,          
                                float zoomLevel) {
     	
-        if (flowerCount != this.flowersList.length) {
-            this.rebuildFlowers(flowerCount, flowerColors);                                                  
-        }
-        
-        for (int i = 0; i < flowersList.length; ++i) {                       
-            flowersList[i].setColor(flowerColors[i]);                         
-        }                                                                        
+        this.flowerCount = flowerCount;
+        this.flowerColors = flowerColors;
+        this.zoomLevel = zoomLevel;
+        this.splineQuality = splineQuality;
+        this.branchProbability = branchProbability;
+        this.branchProbabilityScaled = branchProbability;
+        this.applyPreferences();
                                 
-        // TODO: magic numbers 2, 2, 4, 4
-        if (splineVertexCount != splineQuality + 2) {                           
-            splineVertexCount = splineQuality + 2;                              
-            ByteBuffer byteBuffer =                                                 
-                          ByteBuffer.allocateDirect(4 * 4 * splineVertexCount); 
-            this.bufferSpline = byteBuffer.order(ByteOrder.nativeOrder())               
-                                          .asFloatBuffer();                             
-            for (int i = 0; i < splineVertexCount; ++i) {                       
-                float t = (float) i / (splineVertexCount - 1);                  
-                this.bufferSpline.put(t).put(1)
-                		    .put(t).put(-1);                                    
-            }                                                                    
-            this.bufferSpline.position(0);                                           
-        }                                                                 
-                                                                                 
-        this.branchPropability = branchProbability;                                  
-        this.zoomLvl = zoomLevel;                                                  
+        // TODO: magic number 2
+        this.splineTessellator.setSplineVertexCount(splineQuality + 2);
+        this.layerTessellator.setSplineVertexCount(splineQuality + 2);
+        this.layerCache.invalidate();
     }
+
+	/**
+	 * Applies flower preferences to current simulation. Engines sharing it
+	 * read the same preferences, so applying them again changes nothing
+	 * but branch probability, which follows the last quality level set.
+	 */
+	private void applyPreferences() {
+		if (this.flowerColors == null || this.shared == null) {
+			return;                 /* None set yet, or nothing to set */
+		}
+		synchronized (this.shared) {
+			this.simulation.setPreferences(this.flowerCount, this.flowerColors,
+			                               this.branchProbabilityScaled,
+			                               this.zoomLevel);
+		}
+	}
+
+	/**
+	 * Scales spline quality and branch probability preferences and toggles
+	 * knot drawing according to current quality level. Should be called
+	 * after setPreferences() and whenever the level changes.
+	 */
+	public void setQuality(QualityGovernor governor) {
+		// TODO: magic number 2
+		this.splineTessellator.setSplineVertexCount(
+				         governor.getSplineVertexCount(this.splineQuality + 2));
+		this.layerTessellator.setSplineVertexCount(
+				         this.splineTessellator.getSplineVertexCount());
+		this.branchProbabilityScaled =
+				         governor.getBranchProbability(this.branchProbability);
+		if (this.shared != null) {
+			synchronized (this.shared) {
+				this.simulation.setBranchProbability(
+						                         this.branchProbabilityScaled);
+			}
+		}
+		this.isKnotsEnabled = governor.isKnotsEnabled();
+		this.layerCache.invalidate();
+	}
     
 }
@@ -0,0 +1,516 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import com.givanse.flowords.engine.RandomSource;
+import com.givanse.flowords.engine.Screen;
+
+/**
+ * Flower growth simulation. Plain Java with no Android or OpenGL
+ * dependencies: time and offset are passed in by the caller and each step
+ * produces a GeometrySnapshot ready for rendering.
+ *
+ * Flowers only touch their own part of the store and have a random source
+ * of their own, so with many of them growth and gathering are split over
+ * GrowthWorkers. Results are identical to serial ones.
+ */
+public final class FlowerSimulation {
+
+	private float aspectRatioX = 1f, aspectRatioY = 1f;
+
+	/* Flower movement directions, coords are stored in pairs */
+	private final float[] directionPts = new float[Screen.DIRS_TOTAL * 2];
+
+	private FlowerStore store = new FlowerStore(0);
+	private final GeometrySnapshot snapshot = new GeometrySnapshot();
+
+	private float lastOffsetX, lastOffsetY;     /* Of most recent grow() */
+	private float zoomLvl;
+	private float branchPropability;                  /* Value between [0, 1] */
+
+	/* Seeds one generator per flower, see setSeed() */
+	private final RandomSource random = new RandomSource();
+
+	/* Parallel growth and gathering, see setThreads() */
+	private GrowthWorkers workers;                  /* null if serial only */
+	private GeometrySnapshot[] chunkSnapshots = {};    /* Gathered per chunk */
+	private long taskTime;
+	private float taskOffsetX, taskOffsetY;
+	private int taskMode;
+	private final GrowthWorkers.Task growTask = new GrowthWorkers.Task() {
+		@Override
+		public void run(int chunk, int from, int to) {
+			final FlowerSimulation sim = FlowerSimulation.this;
+			for (int i = from; i < to; ++i) {
+				sim.update(i, sim.taskTime, sim.taskOffsetX, sim.taskOffsetY);
+			}
+		}
+	};
+	private final GrowthWorkers.Task gatherTask = new GrowthWorkers.Task() {
+		@Override
+		public void run(int chunk, int from, int to) {
+			final FlowerSimulation sim = FlowerSimulation.this;
+			final GeometrySnapshot snapshot = sim.chunkSnapshots[chunk];
+			snapshot.clear(sim.taskTime, sim.taskOffsetX, sim.taskOffsetY, 0);
+			for (int i = from; i < to; ++i) {
+				sim.store.gather(i, sim.taskTime, sim.zoomLvl, snapshot,
+				                 sim.taskMode);
+			}
+		}
+	};
+
+	/**
+	 * Default constructor.
+	 */
+	public FlowerSimulation() {
+		this.setDirections();
+	}
+
+	/**
+	 * Calculates length of vector (dx, dy).
+	 */
+	static float getDistance(float dx, float dy) {
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Sets branch values based on given parameters.
+	 */
+	private void setBranchVals(RandomSource random, int branch,
+			                   float startX, float startY,
+			                   int startDir, int rotateDir, float len) {
+
+		final FlowerStore store = this.store;
+		final float[] dirs = this.directionPts;
+		float maxBranchWidth = FlowerStore.BRANCH_WIDTH_MIN + 
+							   this.zoomLvl *
+							   (FlowerStore.BRANCH_WIDTH_MAX -
+							    FlowerStore.BRANCH_WIDTH_MIN);
+		int dir = (8 + startDir) % 8;
+		int normal = (8 + startDir - 2 * rotateDir) % 8;
+		int spline = store.getNextBranchSpline(branch);
+		store.setSplineWidth(spline, maxBranchWidth, 0f);
+		store.curveCtrlPoints(spline, startX, startY,
+				              dirs[dir * 2], dirs[dir * 2 + 1], len,
+				              dirs[normal * 2], dirs[normal * 2 + 1], false);
+		int end = FlowerStore.ctrlPoint(spline, 3);
+		startX = store.splineCtrlPoints[end + 0];
+		startY = store.splineCtrlPoints[end + 1];
+
+		float rand = random.nextFloat(0, 3);
+		if (rand < 1) {
+			this.setRandomKnot(random, store.getNextBranchKnot(branch),
+					           startX, startY);
+		}
+		if (rand >= 1) {
+			store.setSplineWidthEnd(spline, maxBranchWidth / 2);
+			dir = (8 + startDir + 2 * rotateDir) % 8;
+			normal = (8 + startDir) % 8;
+			spline = store.getNextBranchSpline(branch);
+			store.setSplineWidth(spline, maxBranchWidth / 2, 0f);
+			store.curveCtrlPoints(spline, startX, startY,
+					              dirs[dir * 2], dirs[dir * 2 + 1], len,
+					              dirs[normal * 2], dirs[normal * 2 + 1], false);
+
+			end = FlowerStore.ctrlPoint(spline, 3);
+			this.setRandomKnot(random, store.getNextBranchKnot(branch),
+					           store.splineCtrlPoints[end + 0],
+					           store.splineCtrlPoints[end + 1]);
+		}
+		if (rand >= 2) {
+			dir = (8 + startDir - rotateDir) % 8;
+			normal = (8 + startDir + rotateDir) % 8;
+			spline = store.getNextBranchSpline(branch);
+			store.setSplineWidth(spline, maxBranchWidth / 2, 0f);
+			store.curveCtrlPoints(spline, startX, startY,
+					              dirs[dir * 2], dirs[dir * 2 + 1], len * .5f,
+					              dirs[normal * 2], dirs[normal * 2 + 1], false);
+
+			end = FlowerStore.ctrlPoint(spline, 3);
+			this.setRandomKnot(random, store.getNextBranchKnot(branch),
+					           store.splineCtrlPoints[end + 0],
+					           store.splineCtrlPoints[end + 1]);
+		}
+	}
+
+	/**
+	 * Places a knot with random rotation at given position.
+	 */
+	private void setRandomKnot(RandomSource random, int knot,
+			                   float x, float y) {
+        /* Random, matrix rotation */
+		float rotationSin = (float) Math.sin(
+				                 random.nextFloat(0, (float) (Math.PI * 2)));
+		float rotationCos = (float) Math.cos(
+				                 random.nextFloat(0, (float) (Math.PI * 2)));
+		this.store.setKnot(knot, x, y, rotationSin, rotationCos);
+	}
+
+	/**
+	 * Animates flower element regarding to current renderTime value.
+	 */
+	private void update(int flower, long renderTime,
+			            float offsetX, float offsetY) {
+		// TODO: it might be best to do scaling during rendering instead.
+		final float rootWidth = FlowerStore.ROOT_WIDTH_MIN +
+								this.zoomLvl * 
+								(FlowerStore.ROOT_WIDTH_MAX -
+								 FlowerStore.ROOT_WIDTH_MIN);
+
+		final FlowerStore store = this.store;
+		final RandomSource random = store.flowerRandom[flower];
+		final float[] dirs = this.directionPts;
+		final float[] pts = store.splineCtrlPoints;
+		float currentX = store.flowerPosition[flower * 2 + 0];
+		float currentY = store.flowerPosition[flower * 2 + 1];
+		int currentDirIdx = store.flowerDirIndex[flower];
+		int lastRoot = store.getLastRoot(flower);
+		long additionTime = renderTime;
+		while (renderTime >= store.rootStartTime[lastRoot] +
+				             store.rootDuration[lastRoot]) {
+			int root = store.getNextRoot(flower);
+			store.rootStartTime[root] = additionTime;
+			store.rootDuration[root] = 500 + (long) (random.nextDouble() * 500);
+
+			final float targetX = random.nextFloat(-.8f, .8f) + offsetX;
+			final float targetY = random.nextFloat(-.8f, .8f) + offsetY;
+			store.flowerTarget[flower * 2 + 0] = targetX;
+			store.flowerTarget[flower * 2 + 1] = targetY;
+
+			float minDist = FlowerSimulation.getDistance(
+					          currentX + dirs[currentDirIdx * 2 + 0] - targetX,
+					          currentY + dirs[currentDirIdx * 2 + 1] - targetY);
+			int minDirIndex = currentDirIdx;
+			for (int i = 1; i < 8; ++i) {
+				int dir = (currentDirIdx + i) % 8;
+				float dist = FlowerSimulation.getDistance(
+						                 currentX + dirs[dir * 2 + 0] - targetX,
+						                 currentY + dirs[dir * 2 + 1] - targetY);
+				if (dist < minDist) {
+					minDist = dist;
+					minDirIndex = dir;
+				}
+			}
+
+			final float splineLen = Math.max(random.nextFloat(.3f, .5f),
+					FlowerSimulation.getDistance(currentX - targetX,
+							         currentY - targetY) / 2f);
+
+			if (minDirIndex != currentDirIdx) {
+				int k = minDirIndex > currentDirIdx ? 1 : -1;
+				for (int i = currentDirIdx + k; 
+					 i * k <= minDirIndex * k; i += 2 * k) {
+					int normal = (8 + i - 2 * k) % 8;
+					int spline = store.getNextRootSpline(root);
+					store.setSplineWidth(spline, rootWidth, rootWidth);
+					store.curveCtrlPoints(spline, currentX, currentY,
+							              dirs[i * 2], dirs[i * 2 + 1], splineLen,
+							              dirs[normal * 2], dirs[normal * 2 + 1],
+							              i == minDirIndex);
+
+					if (random.nextDouble() < branchPropability) {
+						int branch = store.getCurrentBranch(root);
+						int branchDir = random.nextDouble() < 0.5 ? -k : k;
+						float branchLen = Math.min(splineLen, .5f) * 
+								          random.nextFloat(.6f, .8f);
+						setBranchVals(random, branch, currentX, currentY,
+								      i + branchDir, branchDir, branchLen);
+					}
+
+					int end = FlowerStore.ctrlPoint(spline, 3);
+					currentX = pts[end + 0];
+					currentY = pts[end + 1];
+				}
+				currentDirIdx = minDirIndex;
+			} else {
+				int spline = store.getNextRootSpline(root);
+				store.setSplineWidth(spline, rootWidth, rootWidth);
+				store.setStraight(spline, currentX, currentY,
+						          dirs[currentDirIdx * 2],
+						          dirs[currentDirIdx * 2 + 1], splineLen);
+				
+				if (random.nextDouble() < branchPropability) {
+					int branch = store.getCurrentBranch(root);
+					int branchDir = random.nextDouble() < 0.5 ? -1 : 1;
+					float branchLen = Math.min(splineLen, .5f) * 
+							          random.nextFloat(.6f, .8f);
+					setBranchVals(random, branch, currentX, currentY,
+							      currentDirIdx + branchDir, branchDir,
+							      branchLen);
+				}
+
+				int end = FlowerStore.ctrlPoint(spline, 3);
+				currentX = pts[end + 0];
+				currentY = pts[end + 1];
+			}
+
+			additionTime += store.rootDuration[root];
+			lastRoot = root;
+		}
+		store.flowerPosition[flower * 2 + 0] = currentX;
+		store.flowerPosition[flower * 2 + 1] = currentY;
+		store.flowerDirIndex[flower] = currentDirIdx;
+	}
+	
+	private void rebuildFlowers(int flowerCount, float[][] flowerColors) {
+		this.store = new FlowerStore(flowerCount);
+		for (int i = 0; i < flowerCount; i++) {
+			this.store.flowerRandom[i] = this.random.split();
+			this.store.flowerColor[i] = flowerColors[i % flowerColors.length];
+		}
+	}
+	
+	/**
+	 * Advances growth of every flower up to given time and gathers the
+	 * result for rendering. The returned snapshot is reused by the next step.
+	 * 
+	 * @param time
+	 *            Current time in milliseconds, monotonic.
+	 * @param offsetX
+	 *            Global offset value, new targets are placed around it.
+	 * @param offsetY
+	 *            Global offset value, new targets are placed around it.
+	 */
+	public GeometrySnapshot step(long time, float offsetX, float offsetY) {
+		this.grow(time, offsetX, offsetY);
+		return this.gather(time, offsetX, offsetY);
+	}
+
+	/**
+	 * Generates new roots for every flower up to given time.
+	 */
+	void grow(long time, float offsetX, float offsetY) {
+		this.lastOffsetX = offsetX;
+		this.lastOffsetY = offsetY;
+		if (this.isParallel()) {
+			this.taskTime = time;
+			this.taskOffsetX = offsetX;
+			this.taskOffsetY = offsetY;
+			this.workers.run(this.growTask, this.store.flowerCount);
+			return;
+		}
+		for (int i = 0; i < this.store.flowerCount; i++) {
+			this.update(i, time, offsetX, offsetY);
+		}
+	}
+
+	/**
+	 * Gathers visible parts of every flower at given time.
+	 */
+	GeometrySnapshot gather(long time, float offsetX, float offsetY) {
+		return this.gather(time, offsetX, offsetY, FlowerStore.GATHER_ALL);
+	}
+
+	/**
+	 * Gathers parts of every flower at given time.
+	 *
+	 * @param mode
+	 *            One of FlowerStore.GATHER_ALL, GATHER_LIVE, GATHER_SETTLED.
+	 */
+	GeometrySnapshot gather(long time, float offsetX, float offsetY,
+	                        int mode) {
+		return this.gather(time, offsetX, offsetY, mode, this.snapshot);
+	}
+
+	/**
+	 * Gathers parts of every flower at given time into given snapshot.
+	 */
+	GeometrySnapshot gather(long time, float offsetX, float offsetY,
+	                        int mode, GeometrySnapshot snapshot) {
+		final FlowerStore store = this.store;
+		snapshot.clear(time, offsetX, offsetY, store.flowerCount);
+		for (int i = 0; i < store.flowerCount; i++) {
+			snapshot.setFlowerColor(i, store.flowerColor[i]);
+		}
+		if (!this.isParallel()) {
+			for (int i = 0; i < store.flowerCount; i++) {
+				store.gather(i, time, this.zoomLvl, snapshot, mode);
+			}
+			return snapshot;
+		}
+
+		// Gather chunks into snapshots of their own, then merge them in
+		// flower order.
+		final int chunkCount = GrowthWorkers.getChunkCount(store.flowerCount);
+		if (this.chunkSnapshots.length < chunkCount) {
+			GeometrySnapshot[] snapshots = new GeometrySnapshot[chunkCount];
+			for (int i = 0; i < chunkCount; ++i) {
+				snapshots[i] = i < this.chunkSnapshots.length ?
+				               this.chunkSnapshots[i] : new GeometrySnapshot();
+			}
+			this.chunkSnapshots = snapshots;
+		}
+		this.taskTime = time;
+		this.taskOffsetX = offsetX;
+		this.taskOffsetY = offsetY;
+		this.taskMode = mode;
+		this.workers.run(this.gatherTask, store.flowerCount);
+		for (int i = 0; i < chunkCount; ++i) {
+			snapshot.append(this.chunkSnapshots[i]);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Tells whether there are enough flowers and threads for growth and
+	 * gathering to be split.
+	 */
+	private boolean isParallel() {
+		return this.workers != null &&
+		       this.store.flowerCount >= GrowthWorkers.FLOWERS_MIN;
+	}
+
+	/**
+	 * Gathers splines of settled roots of one flower into given snapshot.
+	 * They stay the same until getRootGeneration() of the flower changes.
+	 */
+	GeometrySnapshot gatherSettled(int flower, long time,
+	                               GeometrySnapshot target) {
+		final FlowerStore store = this.store;
+		target.clear(time, 0f, 0f, store.flowerCount);
+		target.setFlowerColor(flower, store.flowerColor[flower]);
+		store.gather(flower, time, this.zoomLvl, target,
+		             FlowerStore.GATHER_SETTLED);
+		return target;
+	}
+
+	/**
+	 * Sets size of the surface growth happens on. Directions are scaled so
+	 * flowers grow with equal speed on both axes. Existing flowers are
+	 * scaled into the new aspect ratio about the last offset, so the view
+	 * keeps showing the same part of them.
+	 * 
+	 * @param width
+	 *            Surface width.
+	 * @param height
+	 *            Surface height.
+	 * @return true if aspect ratio changed.
+	 */
+	public boolean setSurfaceSize(int width, int height) {
+		/**
+		 * Update the aspect ratio.
+		 *   aspectRatio = units of equal length / dimension 
+		 */
+		final float aspectRatioX = (float) Math.min(width, height) / width;
+		final float aspectRatioY = (float) Math.min(width, height) / height;
+		if (aspectRatioX == this.aspectRatioX &&
+		    aspectRatioY == this.aspectRatioY) {
+			return false;
+		}
+		this.store.scale(this.lastOffsetX, this.lastOffsetY,
+		                 aspectRatioX / this.aspectRatioX,
+		                 aspectRatioY / this.aspectRatioY);
+		this.aspectRatioX = aspectRatioX;
+		this.aspectRatioY = aspectRatioY;
+		this.setDirections();
+		return true;
+	}
+
+	/**
+	 * Adjusts BASE_COORDS to current aspect ratio.
+	 */
+	private void setDirections() {
+		for (int i = 0; i < Screen.DIRS_TOTAL; i++) {
+			/* Use base directions, read BASE_COORDS in pairs */
+			float x = Screen.BASE_COORDS[i * 2 + 0];
+			float y = Screen.BASE_COORDS[i * 2 + 1];
+			
+			/* Scale directions to the new aspect ratio */
+			float lenInv = 1f / FlowerSimulation.getDistance(x, y);
+			this.directionPts[i * 2 + 0] = x * this.aspectRatioX * lenInv;
+			this.directionPts[i * 2 + 1] = y * this.aspectRatioY * lenInv;
+		}
+	}
+
+	public float getAspectRatioX() {
+		return this.aspectRatioX;
+	}
+
+	public float getAspectRatioY() {
+		return this.aspectRatioY;
+	}
+
+	public float getZoomLevel() {
+		return this.zoomLvl;
+	}
+
+	public int getFlowerCount() {
+		return this.store.flowerCount;
+	}
+
+	/**
+	 * Returns counter which changes whenever settled roots of a flower do.
+	 */
+	public int getRootGeneration(int flower) {
+		return this.store.flowerRootGeneration[flower];
+	}
+
+	/**
+	 * Restarts growth with all random decisions derived from given seed.
+	 * Together with the same render times and preferences a seed reproduces
+	 * an identical growth sequence.
+	 * 
+	 * @param seed
+	 *            Seed for the per flower random sources.
+	 */
+	public void setSeed(long seed) {
+		this.random.setSeed(seed);
+		for (int i = 0; i < this.store.flowerCount; ++i) {
+			this.store.flowerRandom[i] = this.random.split();
+			this.store.resetFlower(i);
+		}
+	}
+	
+	/**
+	 * Sets amount of threads growth and gathering are split over, 1 for
+	 * all of it on the calling thread. Only used from FLOWERS_MIN flowers
+	 * on, see GrowthWorkers. Serial by default, splitting has not been
+	 * measured to pay off on devices yet.
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 1) {
+			this.workers = null;
+			this.chunkSnapshots = new GeometrySnapshot[0];
+		} else if (this.workers == null ||
+		           this.workers.getThreads() != threads) {
+			this.workers = new GrowthWorkers(threads);
+		}
+	}
+
+	/**
+	 * Sets probability of spawning a branch per root spline.
+	 */
+	public void setBranchProbability(float branchProbability) {
+		this.branchPropability = branchProbability;
+	}
+
+	/**
+	 * Updates preference values.
+	 */
+	public void setPreferences(int flowerCount, float[][] flowerColors,
+	                           float branchProbability, float zoomLevel) {
+		if (flowerCount != this.store.flowerCount) {
+			this.rebuildFlowers(flowerCount, flowerColors);
+		}
+
+		for (int i = 0; i < this.store.flowerCount; ++i) {
+			this.store.flowerColor[i] = flowerColors[i % flowerColors.length];
+		}
+
+		this.branchPropability = branchProbability;
+		this.zoomLvl = zoomLevel;
+	}
+
+}
@@ -0,0 +1,292 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Flower sprite drawn at every knot, as a single channel luminance texture
+ * with a full mip chain. Knot shader only reads the red channel, which
+ * luminance textures replicate.
+ *
+ * Mip chain is generated once per process on a background thread and kept
+ * in memory, so a lost context only has to upload it again. It is also
+ * written to the cache directory, later processes read it from there.
+ *
+ * Sprite shape follows the Bitmap, Canvas and Paint version by harism:
+ *   github.com/harism/android_wallpaper_flowers/
+ *   commit/42a0a124315f301db726287db1d0edb225d2ef4c
+ */
+final class FlowerSprite {
+
+	private static final String LOG_TAG = "FlowerSprite";
+	private static final String FILE_NAME = "flower_sprite.raw";
+	private static final int VERSION = 1;        /* Bump when shape changes */
+	private static final int SIZE = 256;          /* Level 0, power of two */
+	private static final int SAMPLES = 4;      /* Per texel and axis, for AA */
+
+	/* Shape, in level 0 texels */
+	private static final int LEAVES = 5;
+	private static final float LEAF_DISTANCE = 1.7f * 128 / 3f;
+	private static final float BORDER_RADIUS = 48;
+	private static final float FILL_RADIUS = 36;
+	private static final float BORDER_SHADE = .8f;
+
+	private static volatile ByteBuffer mipChain;      /* null until loaded */
+	private static boolean isLoading;
+
+	private FlowerSprite() {
+	}
+
+	/**
+	 * Starts loading the mip chain in the background unless it is already
+	 * loaded or being loaded.
+	 *
+	 * @param cacheDir
+	 *            Directory the generated chain is kept in.
+	 */
+	public static synchronized void prepare(final File cacheDir) {
+		if (FlowerSprite.mipChain != null || FlowerSprite.isLoading) {
+			return;
+		}
+		FlowerSprite.isLoading = true;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				File file = new File(cacheDir, FlowerSprite.FILE_NAME);
+				ByteBuffer chain = FlowerSprite.read(file);
+				if (chain == null) {
+					chain = FlowerSprite.generate();
+					FlowerSprite.write(file, chain);
+				}
+				FlowerSprite.mipChain = chain;
+			}
+		}, FlowerSprite.LOG_TAG);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Uploads all levels into currently bound GL_TEXTURE_2D and sets
+	 * trilinear filtering. Must be called on GL thread.
+	 *
+	 * @return false if mip chain is not loaded yet, nothing is uploaded.
+	 */
+	public static boolean upload() {
+		final ByteBuffer chain = FlowerSprite.mipChain;
+		if (chain == null) {
+			return false;
+		}
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+		final ByteBuffer level = chain.duplicate();
+		int offset = 0;
+		for (int i = 0, size = FlowerSprite.SIZE; size > 0; ++i, size /= 2) {
+			level.position(offset);
+			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, i, GLES20.GL_LUMINANCE,
+					            size, size, 0, GLES20.GL_LUMINANCE,
+					            GLES20.GL_UNSIGNED_BYTE, level.slice());
+			offset += size * size;
+		}
+		GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+		return true;
+	}
+
+	/**
+	 * Returns bytes of all levels, 256 * 256 * 4 / 3 rounded up.
+	 */
+	private static int getChainBytes() {
+		int bytes = 0;
+		for (int size = FlowerSprite.SIZE; size > 0; size /= 2) {
+			bytes += size * size;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Rasterizes level 0 with supersampling and box filters each following
+	 * level from the previous one.
+	 */
+	private static ByteBuffer generate() {
+		final int size = FlowerSprite.SIZE;
+		final float center = size * .5f;
+		final float[] leaves = new float[FlowerSprite.LEAVES * 2];
+		for (int i = 0; i < FlowerSprite.LEAVES; ++i) {
+			double r = Math.PI * 2 * i / FlowerSprite.LEAVES;
+			leaves[i * 2 + 0] = center + (float) (Math.sin(r) *
+			                                      FlowerSprite.LEAF_DISTANCE);
+			leaves[i * 2 + 1] = center + (float) (Math.cos(r) *
+			                                      FlowerSprite.LEAF_DISTANCE);
+		}
+
+		final ByteBuffer chain = ByteBuffer.allocateDirect(
+				                               FlowerSprite.getChainBytes());
+		final int samples = FlowerSprite.SAMPLES;
+		final float step = 1f / samples;
+		for (int y = 0; y < size; ++y) {
+			for (int x = 0; x < size; ++x) {
+				float sum = 0;
+				for (int sy = 0; sy < samples; ++sy) {
+					for (int sx = 0; sx < samples; ++sx) {
+						sum += FlowerSprite.shade(x + (sx + .5f) * step,
+						                          y + (sy + .5f) * step,
+						                          center, leaves);
+					}
+				}
+				chain.put(y * size + x, (byte) Math.round(
+				          sum / (samples * samples) * 255));
+			}
+		}
+
+		int src = 0;
+		int dst = size * size;
+		for (int s = size / 2; s > 0; s /= 2) {
+			final int srcSize = s * 2;
+			for (int y = 0; y < s; ++y) {
+				for (int x = 0; x < s; ++x) {
+					int i = src + y * 2 * srcSize + x * 2;
+					int sum = (chain.get(i) & 0xFF) +
+					          (chain.get(i + 1) & 0xFF) +
+					          (chain.get(i + srcSize) & 0xFF) +
+					          (chain.get(i + srcSize + 1) & 0xFF);
+					chain.put(dst + y * s + x, (byte) ((sum + 2) / 4));
+				}
+			}
+			src = dst;
+			dst += s * s;
+		}
+		return chain;
+	}
+
+	/**
+	 * Returns sprite value at given point, circles painted in same order
+	 * the Canvas version drew them.
+	 */
+	private static float shade(float x, float y, float center,
+	                           float[] leaves) {
+		final float border = FlowerSprite.BORDER_RADIUS *
+		                     FlowerSprite.BORDER_RADIUS;
+		final float fill = FlowerSprite.FILL_RADIUS *
+		                   FlowerSprite.FILL_RADIUS;
+		float shade = 0;
+		for (int i = 0; i < leaves.length; i += 2) {
+			float dx = x - leaves[i + 0];
+			float dy = y - leaves[i + 1];
+			float distance = dx * dx + dy * dy;
+			if (distance < fill) {
+				return FlowerSprite.shadeCenter(x, y, center, 1f);
+			} else if (distance < border) {
+				shade = FlowerSprite.BORDER_SHADE;
+			}
+		}
+		return FlowerSprite.shadeCenter(x, y, center, shade);
+	}
+
+	private static float shadeCenter(float x, float y, float center,
+	                                 float shade) {
+		float dx = x - center;
+		float dy = y - center;
+		float distance = dx * dx + dy * dy;
+		if (distance < FlowerSprite.FILL_RADIUS * FlowerSprite.FILL_RADIUS) {
+			return 0f;
+		} else if (distance < FlowerSprite.BORDER_RADIUS *
+		                      FlowerSprite.BORDER_RADIUS) {
+			return FlowerSprite.BORDER_SHADE;
+		}
+		return shade;
+	}
+
+	/**
+	 * Returns stored chain, or null if there is none of current version.
+	 */
+	private static ByteBuffer read(File file) {
+		final int bytes = FlowerSprite.getChainBytes();
+		if (file.length() != bytes + 4) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			if (in.readInt() != FlowerSprite.VERSION) {
+				return null;
+			}
+			byte[] data = new byte[bytes];
+			in.readFully(data);
+			ByteBuffer chain = ByteBuffer.allocateDirect(bytes);
+			chain.put(data).position(0);
+			return chain;
+		} catch (IOException e) {
+			Log.w(FlowerSprite.LOG_TAG, "Could not read " + file, e);
+			return null;
+		} finally {
+			FlowerSprite.close(in);
+		}
+	}
+
+	private static void write(File file, ByteBuffer chain) {
+		final byte[] data = new byte[chain.capacity()];
+		chain.duplicate().get(data);
+		// A fresh temp file per write, so no other writer shares it.
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp",
+			                           file.getParentFile());
+			out = new DataOutputStream(new FileOutputStream(temp));
+			out.writeInt(FlowerSprite.VERSION);
+			out.write(data);
+			out.close();
+			out = null;
+			// Never leave a partially written file behind.
+			if (!temp.renameTo(file)) {
+				temp.delete();
+			}
+		} catch (IOException e) {
+			Log.w(FlowerSprite.LOG_TAG, "Could not write " + file, e);
+			if (temp != null) {
+				temp.delete();
+			}
+		} finally {
+			FlowerSprite.close(out);
+		}
+	}
+
+	private static void close(java.io.Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				// Nothing left to do.
+			}
+		}
+	}
+
+}
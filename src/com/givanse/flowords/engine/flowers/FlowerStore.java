@@ -0,0 +1,506 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import com.givanse.flowords.engine.RandomSource;
+
+/**
+ * Packed storage for every flower element. Flowers own a ring of roots, each
+ * root owns up to five splines plus one branch per spline, and each branch
+ * owns up to three splines and two knots. All of them live in parallel
+ * primitive arrays at fixed offsets, so walking a flower touches a handful of
+ * contiguous arrays instead of hundreds of small objects.
+ *
+ * Index layout:
+ *   root   = flower * ROOTS_TOTAL + slot
+ *   branch = root * BRANCHES_TOTAL + rootSplineIndex
+ *   spline = root * SPLINES_PER_ROOT + rootSplineIndex             (root)
+ *   spline = root * SPLINES_PER_ROOT + ROOT_SPLINES_TOTAL +
+ *            branchIndex * BRANCH_SPLINES_TOTAL + branchSplineIndex  (branch)
+ *   knot   = branch * BRANCH_KNOTS_TOTAL + branchKnotIndex
+ */
+final class FlowerStore {
+
+	public static final float POINT_SCALE_MAX = .24f;
+	public static final float POINT_SCALE_MIN = .12f;
+	public static final float ROOT_WIDTH_MAX = 0.12f;
+	public static final float ROOT_WIDTH_MIN = 0.06f;
+	public static final float BRANCH_WIDTH_MAX = 0.1f;
+	public static final float BRANCH_WIDTH_MIN = 0.05f;
+	public static final float SPLINE_WIDTH_MAX = FlowerStore.ROOT_WIDTH_MAX;
+	public static final float SPLINE_WIDTH_MIN = FlowerStore.ROOT_WIDTH_MIN;
+
+	public static final int CTRL_POINTS_TOTAL = 4;
+	public static final int ROOTS_TOTAL = 6;                    /* Per flower */
+	public static final int ROOT_SPLINES_TOTAL = 5;               /* Per root */
+	public static final int BRANCHES_TOTAL = 5;                   /* Per root */
+	public static final int BRANCH_SPLINES_TOTAL = 3;           /* Per branch */
+	public static final int BRANCH_KNOTS_TOTAL = 2;             /* Per branch */
+	public static final int SPLINES_PER_ROOT = FlowerStore.ROOT_SPLINES_TOTAL +
+	                                           FlowerStore.BRANCHES_TOTAL *
+	                                           FlowerStore.BRANCH_SPLINES_TOTAL;
+	public static final int KNOTS_PER_ROOT = FlowerStore.BRANCHES_TOTAL *
+	                                         FlowerStore.BRANCH_KNOTS_TOTAL;
+
+	/* Gather modes, see gather() */
+	public static final int GATHER_ALL = 0;
+	public static final int GATHER_LIVE = 1;
+	public static final int GATHER_SETTLED = 2;
+
+	public final int flowerCount;
+
+	/* Flower data, indexed by flower */
+	public final float[][] flowerColor;
+	public final int[] flowerDirIndex;
+	public final int[] flowerRootHead;            /* Slot of the oldest root */
+	public final int[] flowerRootCount;
+	public final int[] flowerRootGeneration;  /* Bumped when roots change */
+	public final float[] flowerPosition;                  /* x, y pairs */
+	public final float[] flowerTarget;                    /* x, y pairs */
+	public final RandomSource[] flowerRandom;
+
+	/* Root data, indexed by root */
+	public final long[] rootStartTime;
+	public final long[] rootDuration;
+	public final int[] rootSplineCount;
+
+	/* Branch data, indexed by branch */
+	public final int[] branchSplineCount;
+	public final int[] branchKnotCount;
+
+	/* Spline data, indexed by spline */
+	public final float[] splineCtrlPoints;          /* 4 x, y pairs each */
+	public final float[] splineWidth;                /* start, end pairs */
+	public final float[] splineBounds;         /* startT, endT pairs, [0, 1] */
+	public final int[] splineRoot;                         /* Owning root */
+	public final int[] splineBranch;     /* Owning branch, -1 for root ones */
+
+	/* Knot data, indexed by knot */
+	public final float[] knotPosition;                    /* x, y pairs */
+	public final float[] knotRotation;               /* sin, cos pairs */
+	public final float[] knotScale;
+	public final int[] knotBranch;                       /* Owning branch */
+
+	/**
+	 * Allocates storage for given amount of flowers.
+	 */
+	public FlowerStore(int flowerCount) {
+		final int roots = flowerCount * FlowerStore.ROOTS_TOTAL;
+		final int branches = roots * FlowerStore.BRANCHES_TOTAL;
+		final int splines = roots * FlowerStore.SPLINES_PER_ROOT;
+		final int knots = roots * FlowerStore.KNOTS_PER_ROOT;
+
+		this.flowerCount = flowerCount;
+		this.flowerColor = new float[flowerCount][];
+		this.flowerDirIndex = new int[flowerCount];
+		this.flowerRootHead = new int[flowerCount];
+		this.flowerRootCount = new int[flowerCount];
+		this.flowerRootGeneration = new int[flowerCount];
+		this.flowerPosition = new float[flowerCount * 2];
+		this.flowerTarget = new float[flowerCount * 2];
+		this.flowerRandom = new RandomSource[flowerCount];
+
+		this.rootStartTime = new long[roots];
+		this.rootDuration = new long[roots];
+		this.rootSplineCount = new int[roots];
+
+		this.branchSplineCount = new int[branches];
+		this.branchKnotCount = new int[branches];
+
+		this.splineCtrlPoints = new float[splines *
+		                                  FlowerStore.CTRL_POINTS_TOTAL * 2];
+		this.splineWidth = new float[splines * 2];
+		this.splineBounds = new float[splines * 2];
+		this.splineRoot = new int[splines];
+		this.splineBranch = new int[splines];
+
+		this.knotPosition = new float[knots * 2];
+		this.knotRotation = new float[knots * 2];
+		this.knotScale = new float[knots];
+		this.knotBranch = new int[knots];
+
+		/* Ownership never changes, the layout is fixed. */
+		for (int root = 0; root < roots; ++root) {
+			for (int i = 0; i < FlowerStore.ROOT_SPLINES_TOTAL; ++i) {
+				int spline = FlowerStore.rootSpline(root, i);
+				this.splineRoot[spline] = root;
+				this.splineBranch[spline] = -1;
+			}
+			for (int b = 0; b < FlowerStore.BRANCHES_TOTAL; ++b) {
+				int branch = root * FlowerStore.BRANCHES_TOTAL + b;
+				for (int i = 0; i < FlowerStore.BRANCH_SPLINES_TOTAL; ++i) {
+					int spline = FlowerStore.branchSpline(branch, i);
+					this.splineRoot[spline] = root;
+					this.splineBranch[spline] = branch;
+				}
+				for (int i = 0; i < FlowerStore.BRANCH_KNOTS_TOTAL; ++i) {
+					this.knotBranch[FlowerStore.branchKnot(branch, i)] = branch;
+				}
+			}
+		}
+		for (int i = 0; i < this.splineBounds.length; i += 2) {
+			this.splineBounds[i + 1] = 1f;
+		}
+	}
+
+	/* INDEX HELPERS */
+
+	/**
+	 * Returns index of the i-th spline of a root.
+	 */
+	public static int rootSpline(int root, int i) {
+		return root * FlowerStore.SPLINES_PER_ROOT + i;
+	}
+
+	/**
+	 * Returns index of the i-th spline of a branch.
+	 */
+	public static int branchSpline(int branch, int i) {
+		int root = branch / FlowerStore.BRANCHES_TOTAL;
+		int b = branch - root * FlowerStore.BRANCHES_TOTAL;
+		return root * FlowerStore.SPLINES_PER_ROOT +
+		       FlowerStore.ROOT_SPLINES_TOTAL +
+		       b * FlowerStore.BRANCH_SPLINES_TOTAL + i;
+	}
+
+	/**
+	 * Returns index of the i-th knot of a branch.
+	 */
+	public static int branchKnot(int branch, int i) {
+		return branch * FlowerStore.BRANCH_KNOTS_TOTAL + i;
+	}
+
+	/**
+	 * Returns root index for the i-th oldest root of a flower.
+	 */
+	public int flowerRoot(int flower, int i) {
+		return flower * FlowerStore.ROOTS_TOTAL +
+		       (this.flowerRootHead[flower] + i) % FlowerStore.ROOTS_TOTAL;
+	}
+
+	/* FLOWERS */
+
+	/**
+	 * Resets a flower to its initial state.
+	 */
+	public void resetFlower(int flower) {
+		this.flowerRootHead[flower] = 0;
+		this.flowerRootCount[flower] = 0;
+		++this.flowerRootGeneration[flower];
+		this.flowerDirIndex[flower] = 0;
+		this.flowerPosition[flower * 2 + 0] = 0f;
+		this.flowerPosition[flower * 2 + 1] = 0f;
+	}
+
+	/**
+	 * Scales every position of every flower about (centerX, centerY).
+	 * Widths and knot scales are applied in screen space, they stay as is.
+	 * Bumps root generation of every flower.
+	 */
+	public void scale(float centerX, float centerY,
+	                  float scaleX, float scaleY) {
+		FlowerStore.scale(this.flowerPosition, centerX, centerY,
+		                  scaleX, scaleY);
+		FlowerStore.scale(this.flowerTarget, centerX, centerY,
+		                  scaleX, scaleY);
+		FlowerStore.scale(this.splineCtrlPoints, centerX, centerY,
+		                  scaleX, scaleY);
+		FlowerStore.scale(this.knotPosition, centerX, centerY,
+		                  scaleX, scaleY);
+		for (int i = 0; i < this.flowerCount; ++i) {
+			++this.flowerRootGeneration[i];
+		}
+	}
+
+	private static void scale(float[] pts, float centerX, float centerY,
+	                          float scaleX, float scaleY) {
+		for (int i = 0; i < pts.length; i += 2) {
+			pts[i + 0] = centerX + (pts[i + 0] - centerX) * scaleX;
+			pts[i + 1] = centerY + (pts[i + 1] - centerY) * scaleY;
+		}
+	}
+
+	/**
+	 * Returns last active root of a flower. If there are none, returns next
+	 * root.
+	 */
+	public int getLastRoot(int flower) {
+		int count = this.flowerRootCount[flower];
+		if (count == 0) {
+			return this.getNextRoot(flower);
+		}
+		return this.flowerRoot(flower, count - 1);
+	}
+
+	/**
+	 * Returns next root of a flower. Once all root slots are in use the
+	 * oldest one is recycled. Either way the set of settled roots changes,
+	 * so flower root generation is bumped.
+	 */
+	public int getNextRoot(int flower) {
+		++this.flowerRootGeneration[flower];
+		int root;
+		if (this.flowerRootCount[flower] < FlowerStore.ROOTS_TOTAL) {
+			root = this.flowerRoot(flower, this.flowerRootCount[flower]++);
+		} else {
+			root = this.flowerRoot(flower, 0);
+			this.flowerRootHead[flower] = (this.flowerRootHead[flower] + 1) %
+			                              FlowerStore.ROOTS_TOTAL;
+		}
+		this.rootSplineCount[root] = 0;
+		this.rootStartTime[root] = this.rootDuration[root] = 0;
+		return root;
+	}
+
+	/* ROOTS */
+
+	/**
+	 * Returns next spline of a root and resets the branch attached to it.
+	 */
+	public int getNextRootSpline(int root) {
+		int i = this.rootSplineCount[root]++;
+		int branch = root * FlowerStore.BRANCHES_TOTAL + i;
+		this.branchSplineCount[branch] = this.branchKnotCount[branch] = 0;
+		return FlowerStore.rootSpline(root, i);
+	}
+
+	/**
+	 * Returns branch for current root spline.
+	 */
+	public int getCurrentBranch(int root) {
+		return root * FlowerStore.BRANCHES_TOTAL +
+		       this.rootSplineCount[root] - 1;
+	}
+
+	/* BRANCHES */
+
+	/**
+	 * Returns next spline of a branch.
+	 */
+	public int getNextBranchSpline(int branch) {
+		return FlowerStore.branchSpline(branch,
+		                                this.branchSplineCount[branch]++);
+	}
+
+	/**
+	 * Returns next knot of a branch.
+	 */
+	public int getNextBranchKnot(int branch) {
+		return FlowerStore.branchKnot(branch, this.branchKnotCount[branch]++);
+	}
+
+	/* SPLINES */
+
+	public void setSplineWidth(int spline, float widthStart, float widthEnd) {
+		this.splineWidth[spline * 2 + 0] = widthStart;
+		this.splineWidth[spline * 2 + 1] = widthEnd;
+	}
+
+	public void setSplineWidthEnd(int spline, float widthEnd) {
+		this.splineWidth[spline * 2 + 1] = widthEnd;
+	}
+
+	/**
+	 * Returns array offset of given control point, x at offset, y at
+	 * offset + 1.
+	 */
+	public static int ctrlPoint(int spline, int pointId) {
+		return (spline * FlowerStore.CTRL_POINTS_TOTAL + pointId) * 2;
+	}
+
+	/**
+	 * Sets spline to straight line between (start, start + length * dir).
+	 */
+	public void setStraight(int spline, float startX, float startY,
+	                        float dirX, float dirY, float length) {
+		int p = FlowerStore.ctrlPoint(spline, 0);
+		for (int i = 0; i < FlowerStore.CTRL_POINTS_TOTAL; ++i) {
+			float t = (i * length) / 3; // TODO: magic number
+			this.splineCtrlPoints[p++] = startX + dirX * t;
+			this.splineCtrlPoints[p++] = startY + dirY * t;
+		}
+	}
+
+	/**
+	 * Update the control points positions, curve like, based on
+	 * the given parameters.
+	 */
+	public void curveCtrlPoints(int spline, float startX, float startY,
+	                            float dirX, float dirY, float length,
+	                            float normalX, float normalY,
+	                            boolean hasStraightEnd) {
+
+		// TODO: Bezier curve circle estimation.
+		final float normalFactor = 0.27614237491f;  /* 2 * (sqrt(2) - 1) / 3 */
+		final float normalLen = length * normalFactor;
+		final float[] pts = this.splineCtrlPoints;
+		final int p = FlowerStore.ctrlPoint(spline, 0);
+
+		// First control point stays at startPos.
+		pts[p + 0] = startX;
+		pts[p + 1] = startY;
+		// Move second control point into target direction plus same length in
+		// normal direction.
+		pts[p + 2] = startX + (dirX + normalX) * normalLen;
+		pts[p + 3] = startY + (dirY + normalY) * normalLen;
+		// Move third control point to (startPos + (length - normalLen) * dir).
+		pts[p + 4] = startX + dirX * (length - normalLen);
+		pts[p + 5] = startY + dirY * (length - normalLen);
+		// If straight end is not requested move third control point among
+		// normal.
+		if (!hasStraightEnd) {
+			pts[p + 4] += normalX * normalLen;
+			pts[p + 5] += normalY * normalLen;
+		}
+		// Set last control point to (startPos + dir * length).
+		pts[p + 6] = startX + dirX * length;
+		pts[p + 7] = startY + dirY * length;
+	}
+
+	/* KNOTS */
+
+	public void setKnot(int knot, float x, float y,
+	                    float rotationSin, float rotationCos) {
+		this.knotPosition[knot * 2 + 0] = x;
+		this.knotPosition[knot * 2 + 1] = y;
+		this.knotRotation[knot * 2 + 0] = rotationSin;
+		this.knotRotation[knot * 2 + 1] = rotationCos;
+	}
+
+	/* RENDER LIST GATHERING */
+
+	/**
+	 * Collects splines and knots of a flower for rendering. Time is current
+	 * rendering time used for deciding which root element is fading in.
+	 * Spline bounds and knot scales are updated in place.
+	 *
+	 * Roots other than the growing last one and the fading first one are
+	 * settled, they do not change until flower root generation changes.
+	 * GATHER_LIVE skips splines of settled roots, GATHER_SETTLED collects
+	 * only those, without knots. GATHER_ALL collects everything. A flower
+	 * not grown yet has nothing to collect.
+	 */
+	public void gather(int flower, long time, float zoomLvl,
+	                   GeometrySnapshot snapshot, int mode) {
+		final int count = this.flowerRootCount[flower];
+		if (count == 0) {
+			return;                                     /* Not grown yet */
+		}
+		final int lastRoot = this.flowerRoot(flower, count - 1);
+		final float t = (float) (time - this.rootStartTime[lastRoot]) /
+		                this.rootDuration[lastRoot];
+		for (int i = 0; i < count; ++i) {
+			float startT, endT;
+			if (i == count - 1) {
+				startT = 0f; endT = t;
+			} else if (i == 0 && count == FlowerStore.ROOTS_TOTAL) {
+				startT = t; endT = 1f;
+			} else {
+				startT = 0f; endT = 1f;
+			}
+			final boolean isSettled = i != count - 1 &&
+			                          (i != 0 || count != FlowerStore.ROOTS_TOTAL);
+			final boolean addSplines = mode == FlowerStore.GATHER_ALL ||
+			                   isSettled == (mode == FlowerStore.GATHER_SETTLED);
+			final boolean addKnots = mode != FlowerStore.GATHER_SETTLED;
+			if (addSplines || addKnots) {
+				this.gatherRoot(flower, this.flowerRoot(flower, i), startT, endT,
+				                zoomLvl, snapshot, addSplines, addKnots);
+			}
+		}
+	}
+
+	private void gatherRoot(int flower, int root, float startT, float endT,
+	                        float zoomLvl, GeometrySnapshot snapshot,
+	                        boolean addSplines, boolean addKnots) {
+		final int splineCount = this.rootSplineCount[root];
+		for (int i = 0; i < splineCount; ++i) {
+			final int spline = FlowerStore.rootSpline(root, i);
+			float start, end;
+			if (startT != 0f || endT != 1f) {
+				float localStartT = (float) i / splineCount;
+				float localEndT = (float) (i + 1) / splineCount;
+				start = Math.min(Math.max((startT - localStartT) /
+				                 (localEndT - localStartT), 0f), 1f);
+				end = Math.min(Math.max((endT - localStartT) /
+				               (localEndT - localStartT), 0f), 1f);
+			} else {
+				start = 0f;
+				end = 1f;
+			}
+			this.splineBounds[spline * 2 + 0] = start;
+			this.splineBounds[spline * 2 + 1] = end;
+
+			if (start != end) {
+				if (addSplines) {
+					snapshot.addSpline(this, spline, flower);
+				}
+				this.gatherBranch(flower,
+				                  root * FlowerStore.BRANCHES_TOTAL + i,
+				                  start, end, zoomLvl, snapshot,
+				                  addSplines, addKnots);
+			}
+		}
+	}
+
+	private void gatherBranch(int flower, int branch, float startT, float endT,
+	                          float zoomLvl, GeometrySnapshot snapshot,
+	                          boolean addSplines, boolean addKnots) {
+		final int splineCount = this.branchSplineCount[branch];
+		// First iterate over splines.
+		for (int i = 0; i < splineCount; ++i) {
+			final int spline = FlowerStore.branchSpline(branch, i);
+			switch (i) {
+			case 0: // first spline only
+				this.splineBounds[spline * 2 + 0] =
+						startT > 0f ? Math.min(startT * 2, 1f) : 0f;
+				this.splineBounds[spline * 2 + 1] =
+						endT < 1f ? Math.min(endT * 2, 1f) : 1f;
+				break;
+			default: // every other spline
+				this.splineBounds[spline * 2 + 0] =
+						startT > 0f ? Math.max((startT - .5f) * 2, 0f) : 0f;
+				this.splineBounds[spline * 2 + 1] =
+						endT < 1f ? Math.max((endT - .5f) * 2, 0f) : 1f;
+				break;
+			}
+			if (addSplines) {
+				snapshot.addSpline(this, spline, flower);
+			}
+		}
+		if (!addKnots) {
+			return;
+		}
+
+		// Scale factor is calculated from current zoom level.
+		// TODO: scaling might be best done during rendering.
+		final float scaleFactor = FlowerStore.POINT_SCALE_MIN +
+		                          zoomLvl *
+		                          (FlowerStore.POINT_SCALE_MAX -
+		                           FlowerStore.POINT_SCALE_MIN);
+		// Iterate over knots.
+		final int knotCount = this.branchKnotCount[branch];
+		for (int i = 0; i < knotCount; ++i) {
+			final int knot = FlowerStore.branchKnot(branch, i);
+			float scale = endT - startT;
+			if (splineCount == 1) {
+				scale = scale < 1f ? Math.max((scale - .5f) * 2, 0f) : 1f;
+			}
+			this.knotScale[knot] = scale * scaleFactor;
+			snapshot.addKnot(this, knot, flower);
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+/**
+ * Render-ready geometry of one simulation step: every spline and knot that
+ * should be drawn, in world coordinates, together with the flower colors.
+ * Arrays are reused between steps and only grow.
+ */
+public final class GeometrySnapshot {
+
+	public long time;                          /* Simulation time, millis */
+	public float offsetX, offsetY;      /* Offset the step was run with */
+
+	/* Flower data, indexed by flower */
+	public int flowerCount;
+	public float[] flowerColor = new float[4 * 2];           /* RGBA each */
+
+	/* Spline data, indexed by spline */
+	public int splineCount;
+	public float[] splineCtrlPoints = new float[8 * 64];  /* 4 x, y pairs */
+	public float[] splineWidth = new float[2 * 64];   /* start, end pairs */
+	public float[] splineBounds = new float[2 * 64]; /* startT, endT pairs */
+	public int[] splineFlower = new int[64];
+
+	/* Knot data, indexed by knot */
+	public int knotCount;
+	public float[] knotPosition = new float[2 * 32];       /* x, y pairs */
+	public float[] knotRotation = new float[2 * 32];  /* sin, cos pairs */
+	public float[] knotScale = new float[32];
+	public int[] knotFlower = new int[32];
+
+	/**
+	 * Starts a new step for given amount of flowers.
+	 */
+	public void clear(long time, float offsetX, float offsetY,
+	                  int flowerCount) {
+		this.time = time;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		this.flowerCount = flowerCount;
+		if (this.flowerColor.length < flowerCount * 4) {
+			this.flowerColor = new float[flowerCount * 4];
+		}
+		this.splineCount = this.knotCount = 0;
+	}
+
+	public void setFlowerColor(int flower, float[] color) {
+		System.arraycopy(color, 0, this.flowerColor, flower * 4, 4);
+	}
+
+	/**
+	 * Appends a spline of the store with its current bounds.
+	 */
+	public void addSpline(FlowerStore store, int spline, int flower) {
+		if (this.splineCount == this.splineFlower.length) {
+			this.growSplines(this.splineCount * 2);
+		}
+		final int i = this.splineCount++;
+		System.arraycopy(store.splineCtrlPoints,
+		                 FlowerStore.ctrlPoint(spline, 0),
+		                 this.splineCtrlPoints, i * 8, 8);
+		this.splineWidth[i * 2 + 0] = store.splineWidth[spline * 2 + 0];
+		this.splineWidth[i * 2 + 1] = store.splineWidth[spline * 2 + 1];
+		this.splineBounds[i * 2 + 0] = store.splineBounds[spline * 2 + 0];
+		this.splineBounds[i * 2 + 1] = store.splineBounds[spline * 2 + 1];
+		this.splineFlower[i] = flower;
+	}
+
+	/**
+	 * Appends a knot of the store with its current scale.
+	 */
+	public void addKnot(FlowerStore store, int knot, int flower) {
+		if (this.knotCount == this.knotFlower.length) {
+			this.growKnots(this.knotCount * 2);
+		}
+		final int i = this.knotCount++;
+		this.knotPosition[i * 2 + 0] = store.knotPosition[knot * 2 + 0];
+		this.knotPosition[i * 2 + 1] = store.knotPosition[knot * 2 + 1];
+		this.knotRotation[i * 2 + 0] = store.knotRotation[knot * 2 + 0];
+		this.knotRotation[i * 2 + 1] = store.knotRotation[knot * 2 + 1];
+		this.knotScale[i] = store.knotScale[knot];
+		this.knotFlower[i] = flower;
+	}
+
+	/**
+	 * Appends splines and knots of another snapshot, flower indices are
+	 * kept as they are.
+	 */
+	public void append(GeometrySnapshot other) {
+		final int splines = this.splineCount + other.splineCount;
+		if (splines > this.splineFlower.length) {
+			this.growSplines(Math.max(splines, this.splineCount * 2));
+		}
+		final int s = this.splineCount;
+		final int n = other.splineCount;
+		System.arraycopy(other.splineCtrlPoints, 0, this.splineCtrlPoints,
+		                 s * 8, n * 8);
+		System.arraycopy(other.splineWidth, 0, this.splineWidth, s * 2, n * 2);
+		System.arraycopy(other.splineBounds, 0, this.splineBounds,
+		                 s * 2, n * 2);
+		System.arraycopy(other.splineFlower, 0, this.splineFlower, s, n);
+		this.splineCount = splines;
+
+		final int knots = this.knotCount + other.knotCount;
+		if (knots > this.knotFlower.length) {
+			this.growKnots(Math.max(knots, this.knotCount * 2));
+		}
+		final int k = this.knotCount;
+		final int m = other.knotCount;
+		System.arraycopy(other.knotPosition, 0, this.knotPosition, k * 2, m * 2);
+		System.arraycopy(other.knotRotation, 0, this.knotRotation, k * 2, m * 2);
+		System.arraycopy(other.knotScale, 0, this.knotScale, k, m);
+		System.arraycopy(other.knotFlower, 0, this.knotFlower, k, m);
+		this.knotCount = knots;
+	}
+
+	private void growSplines(int capacity) {
+		this.splineCtrlPoints = GeometrySnapshot.grow(this.splineCtrlPoints,
+		                                              capacity * 8);
+		this.splineWidth = GeometrySnapshot.grow(this.splineWidth, capacity * 2);
+		this.splineBounds = GeometrySnapshot.grow(this.splineBounds,
+		                                          capacity * 2);
+		int[] flowers = new int[capacity];
+		System.arraycopy(this.splineFlower, 0, flowers, 0, this.splineCount);
+		this.splineFlower = flowers;
+	}
+
+	private void growKnots(int capacity) {
+		this.knotPosition = GeometrySnapshot.grow(this.knotPosition,
+		                                          capacity * 2);
+		this.knotRotation = GeometrySnapshot.grow(this.knotRotation,
+		                                          capacity * 2);
+		this.knotScale = GeometrySnapshot.grow(this.knotScale, capacity);
+		int[] flowers = new int[capacity];
+		System.arraycopy(this.knotFlower, 0, flowers, 0, this.knotCount);
+		this.knotFlower = flowers;
+	}
+
+	private static float[] grow(float[] array, int length) {
+		float[] grown = new float[length];
+		System.arraycopy(array, 0, grown, 0, Math.min(array.length, length));
+		return grown;
+	}
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task over every flower split into chunks of CHUNK_FLOWERS, on the
+ * calling thread and a few pool threads. Chunks are claimed one at a time,
+ * so a thread done early takes over chunks of slower ones. The caller
+ * returns once every chunk is done, everything written by the task is
+ * visible to it then.
+ *
+ * Pool threads are shared by every instance and stop after a while idle.
+ * Each instance reuses its runners, a run allocates nothing.
+ */
+final class GrowthWorkers {
+
+	/**
+	 * Work on a range of flowers, must not touch other flowers.
+	 */
+	interface Task {
+		/**
+		 * @param chunk
+		 *            Index of the chunk, for per chunk output.
+		 * @param from
+		 *            First flower.
+		 * @param to
+		 *            Flower after the last one.
+		 */
+		void run(int chunk, int from, int to);
+	}
+
+	public static final int CHUNK_FLOWERS = 4;
+	public static final int FLOWERS_MIN = 16;   /* Fewer are updated serially */
+	private static final int THREADS_MAX = 4;         /* Including the caller */
+	private static final long KEEP_ALIVE_SECONDS = 10;
+
+	private static ThreadPoolExecutor executor;          /* Created on demand */
+
+	private final Runner[] runners;             /* One per pool thread used */
+	private final AtomicInteger nextChunk = new AtomicInteger();
+	private final AtomicInteger pending = new AtomicInteger();
+	private Task task;
+	private int flowerCount;
+	private int chunkCount;
+	private Throwable error;                           /* First one thrown */
+
+	/**
+	 * Creates workers using given amount of threads, the calling one
+	 * included. Clamped to [1, THREADS_MAX].
+	 */
+	public GrowthWorkers(int threads) {
+		threads = Math.max(1, Math.min(threads, GrowthWorkers.THREADS_MAX));
+		this.runners = new Runner[threads - 1];
+		for (int i = 0; i < this.runners.length; ++i) {
+			this.runners[i] = new Runner();
+		}
+	}
+
+	public int getThreads() {
+		return this.runners.length + 1;
+	}
+
+	/**
+	 * Returns amount of chunks given amount of flowers is split into.
+	 */
+	public static int getChunkCount(int flowerCount) {
+		return (flowerCount + GrowthWorkers.CHUNK_FLOWERS - 1) /
+		       GrowthWorkers.CHUNK_FLOWERS;
+	}
+
+	/**
+	 * Runs task over given amount of flowers and waits for it to finish.
+	 * Not reentrant, one run per instance at a time. The first exception or
+	 * error thrown by the task, on any thread, is rethrown to the caller.
+	 */
+	public void run(Task task, int flowerCount) {
+		this.task = task;
+		this.flowerCount = flowerCount;
+		this.chunkCount = GrowthWorkers.getChunkCount(flowerCount);
+		this.error = null;
+		this.nextChunk.set(0);
+
+		final int helpers = Math.min(this.runners.length, this.chunkCount - 1);
+		this.pending.set(helpers);
+		if (helpers > 0) {
+			final ThreadPoolExecutor executor = GrowthWorkers.getExecutor();
+			for (int i = 0; i < helpers; ++i) {
+				executor.execute(this.runners[i]);
+			}
+		}
+		this.runChunks();
+		if (helpers > 0) {
+			synchronized (this) {
+				boolean isInterrupted = false;
+				while (this.pending.get() != 0) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						isInterrupted = true;       /* Chunks must finish */
+					}
+				}
+				if (isInterrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		this.task = null;
+		final Throwable error = this.error;
+		this.error = null;
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		}
+	}
+
+	/**
+	 * Claims and runs chunks until none is left.
+	 */
+	private void runChunks() {
+		try {
+			int chunk;
+			while ((chunk = this.nextChunk.getAndIncrement()) <
+			       this.chunkCount) {
+				final int from = chunk * GrowthWorkers.CHUNK_FLOWERS;
+				this.task.run(chunk, from, Math.min(this.flowerCount,
+				              from + GrowthWorkers.CHUNK_FLOWERS));
+			}
+		} catch (Throwable e) {
+			synchronized (this) {
+				if (this.error == null) {
+					this.error = e;
+				}
+			}
+			this.nextChunk.set(this.chunkCount);       /* Others stop early */
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (GrowthWorkers.executor == null) {
+			final int threads = GrowthWorkers.THREADS_MAX - 1;
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+			        threads, GrowthWorkers.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+			        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "GrowthWorker-" +
+					                           this.count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			GrowthWorkers.executor = executor;
+		}
+		return GrowthWorkers.executor;
+	}
+
+	private final class Runner implements Runnable {
+		@Override
+		public void run() {
+			try {
+				GrowthWorkers.this.runChunks();
+			} finally {
+				// Caller waits for every runner, whatever happened.
+				if (GrowthWorkers.this.pending.decrementAndGet() == 0) {
+					synchronized (GrowthWorkers.this) {
+						GrowthWorkers.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+}
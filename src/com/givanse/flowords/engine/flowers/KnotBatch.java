@@ -0,0 +1,189 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Packs every knot of the scene into one buffer so all knot sprites can be
+ * drawn with a single call.
+ *
+ * Instance layout, INSTANCE_FLOATS floats each:
+ *   knot.xyzw   - position relative to current offset, rotation sin, cos
+ *   scale
+ *   color.rgba
+ *
+ * When instancing is not available every instance is expanded into two
+ * triangles, each vertex prefixed with its quad corner.
+ */
+final class KnotBatch {
+
+	public static final int INSTANCE_FLOATS = 9;
+	public static final int INSTANCE_STRIDE = KnotBatch.INSTANCE_FLOATS * 4;
+	public static final int OFFSET_KNOT = 0;                 /* In floats */
+	public static final int OFFSET_SCALE = 4;
+	public static final int OFFSET_COLOR = 5;
+
+	public static final int VERTICES_PER_KNOT = 6;
+	public static final int VERTEX_FLOATS = 2 + KnotBatch.INSTANCE_FLOATS;
+	public static final int VERTEX_STRIDE = KnotBatch.VERTEX_FLOATS * 4;
+	public static final int OFFSET_CORNER = 0;                /* In floats */
+	public static final int OFFSET_VERTEX_INSTANCE = 2;
+
+	/* Two triangles, same winding as Screen.VERTICES_COORDS strip */
+	private static final float[] CORNERS = { -1,  1, -1, -1,  1,  1,
+	                                          1,  1, -1, -1,  1, -1 };
+
+	private boolean expanded;
+	private float[] data = new float[KnotBatch.VERTEX_FLOATS *
+	                                 KnotBatch.VERTICES_PER_KNOT * 32];
+	private int floatCount;
+	private int knotCount;
+	private int culledCount;
+	private FloatBuffer buffer = KnotBatch.allocate(this.data.length);
+
+	private static FloatBuffer allocate(int floats) {
+		return ByteBuffer.allocateDirect(floats * 4)
+		                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Selects between per instance data and expanded quads.
+	 */
+	public void setExpanded(boolean expanded) {
+		this.expanded = expanded;
+		this.clear();
+	}
+
+	public boolean isExpanded() {
+		return this.expanded;
+	}
+
+	/**
+	 * Starts a new frame.
+	 */
+	public void clear() {
+		this.floatCount = this.knotCount = this.culledCount = 0;
+	}
+
+	public int getKnotCount() {
+		return this.knotCount;
+	}
+
+	/**
+	 * Knots skipped as not visible since clear().
+	 */
+	public int getCulledCount() {
+		return this.culledCount;
+	}
+
+	/**
+	 * Vertex count to draw in expanded mode.
+	 */
+	public int getVertexCount() {
+		return this.knotCount * KnotBatch.VERTICES_PER_KNOT;
+	}
+
+	/**
+	 * Bytes used by packed data.
+	 */
+	public int getSizeBytes() {
+		return this.floatCount * 4;
+	}
+
+	/**
+	 * Appends every visible knot of given snapshot. Knot sprite is a quad
+	 * of half size scale * aspect, rotated, so its bounds extend scale *
+	 * aspect * (|sin| + |cos|) around the knot.
+	 *
+	 * @param viewX
+	 *            Half width of the view around the offset.
+	 * @param viewY
+	 *            Half height of the view around the offset.
+	 * @param aspectX
+	 *            Aspect ratio sprites are scaled with on x axis.
+	 * @param aspectY
+	 *            Aspect ratio sprites are scaled with on y axis.
+	 */
+	public void add(GeometrySnapshot snapshot, float offsetX, float offsetY,
+	                float viewX, float viewY, float aspectX, float aspectY) {
+		final int perKnot = this.expanded ?
+		                    KnotBatch.VERTEX_FLOATS * KnotBatch.VERTICES_PER_KNOT :
+		                    KnotBatch.INSTANCE_FLOATS;
+		this.ensureCapacity(this.floatCount + snapshot.knotCount * perKnot);
+
+		final float[] position = snapshot.knotPosition;
+		final float[] rotation = snapshot.knotRotation;
+		final float[] scale = snapshot.knotScale;
+		final float[] colors = snapshot.flowerColor;
+		final float[] d = this.data;
+		for (int knot = 0; knot < snapshot.knotCount; ++knot) {
+			final float x = position[knot * 2 + 0] - offsetX;
+			final float y = position[knot * 2 + 1] - offsetY;
+			final float extent = scale[knot] *
+			                     (Math.abs(rotation[knot * 2 + 0]) +
+			                      Math.abs(rotation[knot * 2 + 1]));
+			if (Math.abs(x) - extent * aspectX >= viewX ||
+			    Math.abs(y) - extent * aspectY >= viewY) {
+				++this.culledCount;
+				continue;
+			}
+			final int color = snapshot.knotFlower[knot] * 4;
+			final int vertices = this.expanded ?
+			                     KnotBatch.VERTICES_PER_KNOT : 1;
+			for (int v = 0; v < vertices; ++v) {
+				int i = this.floatCount;
+				if (this.expanded) {
+					d[i++] = KnotBatch.CORNERS[v * 2 + 0];
+					d[i++] = KnotBatch.CORNERS[v * 2 + 1];
+				}
+				d[i++] = x;
+				d[i++] = y;
+				d[i++] = rotation[knot * 2 + 0];
+				d[i++] = rotation[knot * 2 + 1];
+				d[i++] = scale[knot];
+				d[i++] = colors[color + 0];
+				d[i++] = colors[color + 1];
+				d[i++] = colors[color + 2];
+				d[i++] = colors[color + 3];
+				this.floatCount = i;
+			}
+			++this.knotCount;
+		}
+	}
+
+	private void ensureCapacity(int floats) {
+		if (floats > this.data.length) {
+			float[] grown = new float[Math.max(floats, this.data.length * 2)];
+			System.arraycopy(this.data, 0, grown, 0, this.floatCount);
+			this.data = grown;
+		}
+	}
+
+	/**
+	 * Copies packed data into a direct buffer ready for upload.
+	 */
+	public FloatBuffer getBuffer() {
+		if (this.buffer.capacity() < this.floatCount) {
+			this.buffer = KnotBatch.allocate(this.data.length);
+		}
+		this.buffer.clear();
+		this.buffer.put(this.data, 0, this.floatCount).position(0);
+		return this.buffer;
+	}
+
+}
@@ -0,0 +1,270 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import com.givanse.flowords.engine.GLState;
+import android.opengl.GLES20;
+
+/**
+ * Keeps settled roots of all flowers rasterized into one shared texture,
+ * so only growing and fading roots have to be tessellated and drawn each
+ * frame. The layer covers settled geometry up to VIEW_MARGIN around the
+ * view it was baked for, at the resolution of the framebuffer it is drawn
+ * into. It stays valid until root generation of any flower changes or the
+ * view moves past covered region.
+ *
+ * All coordinates are in world units, the view spans [-1, 1] around the
+ * offset on both axes.
+ */
+final class RootLayerCache {
+
+	private static final float VIEW_MARGIN = .25f;
+	/* More flowers start roots, and so rebake, about every frame */
+	public static final int FLOWERS_MAX = 8;
+
+	private final GLState glState;
+	private final int[] frameBufferId = { 0 };          /* 0 if not created */
+	private final int[] textureId = { 0 };
+	private boolean isBaked;
+	private int flowerCount;
+	private int[] generations = {};               /* Baked, one per flower */
+	private final float[] bounds = new float[4];  /* Settled, min x, y, max */
+	private final float[] region = new float[4];  /* Baked part of bounds */
+	private int width, height;                /* Texture pixels in use */
+
+	private int targetWidth;
+	private int targetHeight;
+	private int textureWidth;
+	private int textureHeight;
+	private float pixelsPerUnitX;
+	private float pixelsPerUnitY;
+
+	/**
+	 * Creates an empty cache, the layer is drawn through given state cache.
+	 */
+	public RootLayerCache(GLState glState) {
+		this.glState = glState;
+	}
+
+	/**
+	 * Sets size of the framebuffer the layer is drawn into, it is baked at
+	 * the same resolution unless that exceeds GL_MAX_TEXTURE_SIZE. Drops
+	 * the layer if size changes. Must be called on GL thread.
+	 */
+	public void setTargetSize(int width, int height) {
+		if (width == this.targetWidth && height == this.targetHeight) {
+			return;
+		}
+		this.release();
+		this.targetWidth = width;
+		this.targetHeight = height;
+
+		// Largest region spans the view plus margins on both sides.
+		final int[] sizeMax = new int[1];
+		GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, sizeMax, 0);
+		final float span = 1f + RootLayerCache.VIEW_MARGIN;
+		final float scale = Math.min(1f, sizeMax[0] /
+		                                 (Math.max(width, height) * span));
+		this.pixelsPerUnitX = width * .5f * scale;
+		this.pixelsPerUnitY = height * .5f * scale;
+		this.textureWidth = Math.min(sizeMax[0],
+		                    (int) Math.ceil(this.pixelsPerUnitX * span * 2));
+		this.textureHeight = Math.min(sizeMax[0],
+		                     (int) Math.ceil(this.pixelsPerUnitY * span * 2));
+	}
+
+	/**
+	 * Marks the layer for baking, GL objects are kept.
+	 */
+	public void invalidate() {
+		this.isBaked = false;
+	}
+
+	/**
+	 * Deletes GL objects of the layer. Must be called on GL thread.
+	 */
+	public void release() {
+		if (this.frameBufferId[0] != 0) {
+			GLES20.glDeleteFramebuffers(1, this.frameBufferId, 0);
+			GLES20.glDeleteTextures(1, this.textureId, 0);
+			// Deleting bound objects binds 0 in their place.
+			this.glState.invalidate();
+		}
+		this.forget();
+	}
+
+	/**
+	 * Drops GL object ids without deleting them, for when the context they
+	 * belonged to is gone.
+	 */
+	public void forget() {
+		this.frameBufferId[0] = this.textureId[0] = 0;
+		this.isBaked = false;
+	}
+
+	/**
+	 * Tells whether the layer still holds every settled spline of given
+	 * frame visible around given offset.
+	 */
+	public boolean isValid(SimulationFrame frame,
+	                       float offsetX, float offsetY) {
+		if (!this.isBaked || this.flowerCount != frame.flowerCount) {
+			return false;
+		}
+		for (int i = 0; i < this.flowerCount; ++i) {
+			if (this.generations[i] != frame.generations[i]) {
+				return false;
+			}
+		}
+		final float[] b = this.bounds;
+		final float[] r = this.region;
+		final float minX = Math.max(offsetX - 1f, b[0]);
+		final float minY = Math.max(offsetY - 1f, b[1]);
+		final float maxX = Math.min(offsetX + 1f, b[2]);
+		final float maxY = Math.min(offsetY + 1f, b[3]);
+		if (minX > maxX || minY > maxY) {
+			return true;
+		}
+		return minX >= r[0] && minY >= r[1] && maxX <= r[2] && maxY <= r[3];
+	}
+
+	/**
+	 * Starts baking the layer. Computes region covered from settled splines
+	 * of every flower around given offset, and if there is anything to draw
+	 * binds layer frame buffer, clears it and sets viewport to the used
+	 * part of it.
+	 *
+	 * @param frame
+	 *            Frame gathered with settled roots of every flower.
+	 * @param marginX
+	 *            Largest spline half width on x axis.
+	 * @param marginY
+	 *            Largest spline half width on y axis.
+	 * @return true if layer should be drawn into and end() called, false if
+	 *         it is empty.
+	 */
+	public boolean begin(SimulationFrame frame, float offsetX, float offsetY,
+	                     float marginX, float marginY) {
+		final float[] b = this.bounds;
+		final float[] r = this.region;
+		b[0] = b[1] = Float.MAX_VALUE;
+		b[2] = b[3] = -Float.MAX_VALUE;
+		for (int i = 0; i < frame.flowerCount; ++i) {
+			final GeometrySnapshot settled = frame.settled[i];
+			final float[] pts = settled.splineCtrlPoints;
+			final int ptsEnd = settled.splineCount *
+			                   FlowerStore.CTRL_POINTS_TOTAL * 2;
+			for (int p = 0; p < ptsEnd; p += 2) {
+				b[0] = Math.min(b[0], pts[p + 0] - marginX);
+				b[1] = Math.min(b[1], pts[p + 1] - marginY);
+				b[2] = Math.max(b[2], pts[p + 0] + marginX);
+				b[3] = Math.max(b[3], pts[p + 1] + marginY);
+			}
+		}
+
+		final float span = 1f + RootLayerCache.VIEW_MARGIN;
+		r[0] = Math.max(b[0], offsetX - span);
+		r[1] = Math.max(b[1], offsetY - span);
+		r[2] = Math.min(b[2], offsetX + span);
+		r[3] = Math.min(b[3], offsetY + span);
+		if (this.generations.length < frame.flowerCount) {
+			this.generations = new int[frame.flowerCount];
+		}
+		System.arraycopy(frame.generations, 0, this.generations, 0,
+		                 frame.flowerCount);
+		this.flowerCount = frame.flowerCount;
+		this.isBaked = true;
+		if (r[0] >= r[2] || r[1] >= r[3]) {
+			this.width = this.height = 0;
+			return false;
+		}
+
+		this.width = Math.min(this.textureWidth,
+		             (int) Math.ceil((r[2] - r[0]) * this.pixelsPerUnitX));
+		this.height = Math.min(this.textureHeight,
+		              (int) Math.ceil((r[3] - r[1]) * this.pixelsPerUnitY));
+
+		if (this.frameBufferId[0] == 0) {
+			this.create();
+		} else {
+			this.glState.bindFramebuffer(this.frameBufferId[0]);
+		}
+		// Clear all of it, bilinear filtering reads past the used part.
+		this.glState.viewport(0, 0, this.width, this.height);
+		GLES20.glClearColor(0f, 0f, 0f, 0f);
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+		return true;
+	}
+
+	/**
+	 * Finishes baking, binds default frame buffer back.
+	 */
+	public void end() {
+		this.glState.bindFramebuffer(0);
+	}
+
+	private void create() {
+		GLES20.glGenFramebuffers(1, this.frameBufferId, 0);
+		this.glState.bindFramebuffer(this.frameBufferId[0]);
+		GLES20.glGenTextures(1, this.textureId, 0);
+		this.glState.bindTexture(0, this.textureId[0]);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				GLES20.GL_CLAMP_TO_EDGE);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+				GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
+		                    this.textureWidth, this.textureHeight, 0,
+		                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+		                              GLES20.GL_COLOR_ATTACHMENT0,
+		                              GLES20.GL_TEXTURE_2D,
+		                              this.textureId[0], 0);
+	}
+
+	/**
+	 * Tells whether the layer has anything to draw.
+	 */
+	public boolean isEmpty() {
+		return !this.isBaked || this.width == 0;
+	}
+
+	public int getTextureId() {
+		return this.textureId[0];
+	}
+
+	/**
+	 * Writes center x, y and half width, height of baked region.
+	 */
+	public void getRegion(float[] out) {
+		final float[] r = this.region;
+		out[0] = (r[0] + r[2]) * .5f;
+		out[1] = (r[1] + r[3]) * .5f;
+		out[2] = (r[2] - r[0]) * .5f;
+		out[3] = (r[3] - r[1]) * .5f;
+	}
+
+	/**
+	 * Writes part of the texture in use, width and height in [0, 1].
+	 */
+	public void getTextureScale(float[] out) {
+		out[0] = (float) this.width / this.textureWidth;
+		out[1] = (float) this.height / this.textureHeight;
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.util.ArrayList;
+
+/**
+ * Reference counted FlowerSimulation shared by every engine whose surface
+ * has the same aspect ratio, e.g. the wallpaper and its preview. Each
+ * engine grows it to its own render time and gathers it around its own
+ * offset, growth up to a time happens only once.
+ *
+ * Geometry is stored in units of one aspect ratio, so engines with other
+ * surfaces get a simulation of their own. Access to the simulation has to
+ * be synchronized on its SharedSimulation.
+ */
+final class SharedSimulation {
+
+	private static final ArrayList<SharedSimulation> shared =
+			                               new ArrayList<SharedSimulation>();
+
+	public final FlowerSimulation simulation = new FlowerSimulation();
+	private int refCount;
+
+	private SharedSimulation() {
+	}
+
+	/**
+	 * Returns simulation for a surface of given size, shared if there
+	 * already is one for its aspect ratio. Has to be release()d once done.
+	 */
+	public static synchronized SharedSimulation acquire(int width,
+	                                                    int height) {
+		SharedSimulation result = SharedSimulation.find(width, height);
+		if (result == null) {
+			result = new SharedSimulation();
+			result.simulation.setSurfaceSize(width, height);
+			SharedSimulation.shared.add(result);
+		}
+		++result.refCount;
+		return result;
+	}
+
+	/**
+	 * Moves an acquired simulation to a surface of given size. A simulation
+	 * used only by the caller is scaled in place and keeps its growth,
+	 * otherwise it is released and the one for the new size acquired.
+	 *
+	 * @return Simulation to use from now on, may be the given one.
+	 */
+	public static synchronized SharedSimulation resize(SharedSimulation from,
+	                                                   int width, int height) {
+		if (from.isMatching(width, height)) {
+			return from;
+		}
+		if (from.refCount == 1 &&
+		    SharedSimulation.find(width, height) == null) {
+			synchronized (from) {
+				from.simulation.setSurfaceSize(width, height);
+			}
+			return from;
+		}
+		SharedSimulation.release(from);
+		return SharedSimulation.acquire(width, height);
+	}
+
+	/**
+	 * Drops a reference, simulation is forgotten once the last one is gone.
+	 */
+	public static synchronized void release(SharedSimulation simulation) {
+		if (--simulation.refCount == 0) {
+			SharedSimulation.shared.remove(simulation);
+		}
+	}
+
+	private static SharedSimulation find(int width, int height) {
+		for (SharedSimulation simulation : SharedSimulation.shared) {
+			if (simulation.isMatching(width, height)) {
+				return simulation;
+			}
+		}
+		return null;
+	}
+
+	private boolean isMatching(int width, int height) {
+		final float min = Math.min(width, height);
+		synchronized (this) {
+			return this.simulation.getAspectRatioX() == min / width &&
+			       this.simulation.getAspectRatioY() == min / height;
+		}
+	}
+
+}
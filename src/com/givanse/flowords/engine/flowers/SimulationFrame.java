@@ -0,0 +1,76 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+/**
+ * Everything the GL thread needs of one simulation step: gathered splines
+ * and knots, plus settled roots and root generation of every flower for
+ * baking the root layer. Filled under the simulation lock, read without it
+ * once handed over by SimulationThread.
+ */
+final class SimulationFrame {
+
+	public final GeometrySnapshot live = new GeometrySnapshot();
+	public GeometrySnapshot[] settled = {};  /* Per flower, if isCached */
+	public int[] generations = {};                   /* Root generations */
+	public int flowerCount;
+	public boolean isCached;         /* live holds only unsettled roots */
+	public boolean isComplete;                /* false until first fill */
+	public long growNanos;               /* Time fill() spent growing */
+	public long gatherNanos;                      /* and gathering */
+
+	/**
+	 * Grows given simulation to given time and gathers it. Caller holds
+	 * simulation lock.
+	 * 
+	 * @param isCached
+	 *            Gather settled roots separately, for the root layer.
+	 */
+	public void fill(FlowerSimulation simulation, long time,
+	                 float offsetX, float offsetY, boolean isCached) {
+		final long growStart = System.nanoTime();
+		simulation.grow(time, offsetX, offsetY);
+		final long gatherStart = System.nanoTime();
+		simulation.gather(time, offsetX, offsetY, isCached ?
+		                  FlowerStore.GATHER_LIVE : FlowerStore.GATHER_ALL,
+		                  this.live);
+		final int flowerCount = simulation.getFlowerCount();
+		if (this.generations.length < flowerCount) {
+			this.generations = new int[flowerCount];
+		}
+		for (int i = 0; i < flowerCount; ++i) {
+			this.generations[i] = simulation.getRootGeneration(i);
+		}
+		if (isCached) {
+			if (this.settled.length < flowerCount) {
+				GeometrySnapshot[] settled = new GeometrySnapshot[flowerCount];
+				for (int i = 0; i < flowerCount; ++i) {
+					settled[i] = i < this.settled.length ?
+					             this.settled[i] : new GeometrySnapshot();
+				}
+				this.settled = settled;
+			}
+			for (int i = 0; i < flowerCount; ++i) {
+				simulation.gatherSettled(i, time, this.settled[i]);
+			}
+		}
+		this.flowerCount = flowerCount;
+		this.isCached = isCached;
+		this.isComplete = true;
+		this.growNanos = gatherStart - growStart;
+		this.gatherNanos = System.nanoTime() - gatherStart;
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Grows a shared simulation on a thread of its own and hands gathered
+ * frames over to the GL thread through a lock free triple buffer. Each
+ * frame the GL thread takes the latest complete SimulationFrame and asks
+ * for the next one, so growth spikes never hold up GL submission, at the
+ * cost of drawing growth one frame late. Idle thread is parked.
+ *
+ * Producer owns the back frame and the consumer the front frame, the
+ * middle one is swapped atomically with either. A frame handed over is
+ * not written to until the consumer gives it back.
+ */
+final class SimulationThread extends Thread {
+
+	private static final int FRESH = 4;      /* Middle holds a new frame */
+	private static final int INDEX = 3;
+
+	private final SimulationFrame[] frames = { new SimulationFrame(),
+	                                           new SimulationFrame(),
+	                                           new SimulationFrame() };
+	private final AtomicInteger middle = new AtomicInteger(1);
+	private int back = 0;                                 /* Producer only */
+	private int front = 2;                                /* Consumer only */
+
+	/* Latest request, time is written last */
+	private volatile SharedSimulation shared;
+	private volatile float requestOffsetX, requestOffsetY;
+	private volatile boolean requestCached;
+	private volatile long requestTime = -1;
+	private long producedTime = -1;                       /* Producer only */
+	private volatile boolean isQuit;
+
+	public SimulationThread(SharedSimulation shared) {
+		super("FlowerSimulation");
+		this.shared = shared;
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Sets simulation to grow from next request on.
+	 */
+	public void setShared(SharedSimulation shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * Asks for a frame grown to given time, replaces earlier requests not
+	 * started yet.
+	 */
+	public void request(long time, float offsetX, float offsetY,
+	                    boolean isCached) {
+		this.requestOffsetX = offsetX;
+		this.requestOffsetY = offsetY;
+		this.requestCached = isCached;
+		this.requestTime = time;
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Returns latest complete frame. It stays valid and unchanged until
+	 * next call. Called from the consumer thread only.
+	 */
+	public SimulationFrame getLatest() {
+		if ((this.middle.get() & SimulationThread.FRESH) != 0) {
+			this.front = this.middle.getAndSet(this.front) &
+			             SimulationThread.INDEX;
+		}
+		return this.frames[this.front];
+	}
+
+	/**
+	 * Stops the thread once current frame is done.
+	 */
+	public void quit() {
+		this.isQuit = true;
+		LockSupport.unpark(this);
+	}
+
+	@Override
+	public void run() {
+		while (!this.isQuit) {
+			final long time = this.requestTime;
+			if (time == this.producedTime) {
+				LockSupport.park(this);
+				continue;
+			}
+			final float offsetX = this.requestOffsetX;
+			final float offsetY = this.requestOffsetY;
+			final boolean isCached = this.requestCached;
+			final SharedSimulation shared = this.shared;
+			final SimulationFrame frame = this.frames[this.back];
+			synchronized (shared) {
+				frame.fill(shared.simulation, time, offsetX, offsetY,
+				           isCached);
+			}
+			this.producedTime = time;
+			this.back = this.middle.getAndSet(this.back |
+			                                  SimulationThread.FRESH) &
+			            SimulationThread.INDEX;
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.givanse.flowords.engine.flowers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Tessellates every visible spline of the scene into a single triangle strip.
+ * Splines are stitched together with degenerate triangles so the whole spline
+ * layer can be drawn with one glDrawArrays call.
+ *
+ * Vertex layout, VERTEX_FLOATS floats each:
+ *   position.xy  - curve point relative to current offset
+ *   normal.xy    - unit curve normal
+ *   width.xy     - half width, side [-1, 1]
+ *   color.rgba
+ */
+final class SplineTessellator {
+
+	public static final int VERTEX_FLOATS = 10;
+	public static final int VERTEX_STRIDE = SplineTessellator.VERTEX_FLOATS * 4;
+	public static final int OFFSET_POSITION = 0;             /* In floats */
+	public static final int OFFSET_NORMAL = 2;
+	public static final int OFFSET_WIDTH = 4;
+	public static final int OFFSET_COLOR = 6;
+
+	private static final float TOLERANCE = .5f;  /* Max deviation, pixels */
+
+	private float[] vertices = new float[SplineTessellator.VERTEX_FLOATS * 256];
+	private int vertexCount;
+	private int growingCount;       /* Visible splines partially drawn */
+	private int visibleCount;
+	private int culledCount;
+	private FloatBuffer buffer = SplineTessellator.allocate(
+	                                                  this.vertices.length);
+	private int splineVertexCount = 2;   /* Most points along one spline */
+	private float pixelsPerUnitX, pixelsPerUnitY;    /* 0 if size not set */
+
+	private static FloatBuffer allocate(int floats) {
+		return ByteBuffer.allocateDirect(floats * 4)
+		                 .order(ByteOrder.nativeOrder()).asFloatBuffer();
+	}
+
+	/**
+	 * Sets how many points are evaluated along a full spline at most.
+	 * Flat or small splines get fewer, see getVertexCount().
+	 */
+	public void setSplineVertexCount(int splineVertexCount) {
+		this.splineVertexCount = splineVertexCount;
+	}
+
+	/**
+	 * Sets size of the framebuffer splines are drawn into, deviation from
+	 * the curve is measured in its pixels. Until set every spline gets the
+	 * full vertex count.
+	 */
+	public void setTargetSize(int width, int height) {
+		this.pixelsPerUnitX = width * .5f;
+		this.pixelsPerUnitY = height * .5f;
+	}
+
+	public int getSplineVertexCount() {
+		return this.splineVertexCount;
+	}
+
+	/**
+	 * Starts a new frame.
+	 */
+	public void clear() {
+		this.vertexCount = this.growingCount = 0;
+		this.visibleCount = this.culledCount = 0;
+	}
+
+	/**
+	 * Number of strip vertices tessellated so far.
+	 */
+	public int getVertexCount() {
+		return this.vertexCount;
+	}
+
+	/**
+	 * Number of visible splines which are growing or fading out, that is
+	 * drawn between bounds other than [0, 1]. Zero means tessellated
+	 * geometry does not change while the offset stays the same.
+	 */
+	public int getGrowingCount() {
+		return this.growingCount;
+	}
+
+	/**
+	 * Splines tessellated since clear().
+	 */
+	public int getVisibleCount() {
+		return this.visibleCount;
+	}
+
+	/**
+	 * Splines skipped as not visible since clear().
+	 */
+	public int getCulledCount() {
+		return this.culledCount;
+	}
+
+	/**
+	 * Appends every visible spline of given snapshot. A cubic Bezier lies
+	 * within the convex hull of its control points, so a spline is skipped
+	 * if bounding box of its control points, expanded by its half width,
+	 * misses the view.
+	 *
+	 * @param viewX
+	 *            Half width of the view around the offset.
+	 * @param viewY
+	 *            Half height of the view around the offset.
+	 * @param aspectX
+	 *            Aspect ratio widths are scaled with on x axis.
+	 * @param aspectY
+	 *            Aspect ratio widths are scaled with on y axis.
+	 */
+	public void add(GeometrySnapshot snapshot, float offsetX, float offsetY,
+	                float viewX, float viewY, float aspectX, float aspectY) {
+		final float[] pts = snapshot.splineCtrlPoints;
+		final float[] widths = snapshot.splineWidth;
+		final float[] bounds = snapshot.splineBounds;
+		for (int spline = 0; spline < snapshot.splineCount; ++spline) {
+			final int p = spline * FlowerStore.CTRL_POINTS_TOTAL * 2;
+			float minX = pts[p + 0], maxX = minX;
+			float minY = pts[p + 1], maxY = minY;
+			for (int i = 2; i < FlowerStore.CTRL_POINTS_TOTAL * 2; i += 2) {
+				minX = Math.min(minX, pts[p + i + 0]);
+				maxX = Math.max(maxX, pts[p + i + 0]);
+				minY = Math.min(minY, pts[p + i + 1]);
+				maxY = Math.max(maxY, pts[p + i + 1]);
+			}
+			final float halfWidth = Math.max(widths[spline * 2 + 0],
+			                                 widths[spline * 2 + 1]) * .5f;
+			final float marginX = halfWidth * aspectX;
+			final float marginY = halfWidth * aspectY;
+			if (maxX + marginX <= offsetX - viewX ||
+			    minX - marginX >= offsetX + viewX ||
+			    maxY + marginY <= offsetY - viewY ||
+			    minY - marginY >= offsetY + viewY) {
+				++this.culledCount;
+			} else {
+				++this.visibleCount;
+				if (bounds[spline * 2 + 0] != 0f ||
+				    bounds[spline * 2 + 1] != 1f) {
+					++this.growingCount;
+				}
+				this.addSpline(pts, p, offsetX, offsetY,
+				               widths[spline * 2 + 0], widths[spline * 2 + 1],
+				               bounds[spline * 2 + 0], bounds[spline * 2 + 1],
+				               snapshot.flowerColor,
+				               snapshot.splineFlower[spline] * 4);
+			}
+		}
+	}
+
+	/**
+	 * Returns points to evaluate along a full spline so the polyline stays
+	 * within TOLERANCE pixels of the curve. A cubic Bezier split into n
+	 * segments deviates at most 3 / 4 * d / n^2, d being the largest second
+	 * difference of its control points. Segment counts are rounded up to
+	 * a power of two, so a spline keeps its count while the view drifts,
+	 * and capped by setSplineVertexCount().
+	 */
+	private int getVertexCount(float[] pts, int p) {
+		final int segmentsMax = this.splineVertexCount - 1;
+		if (this.pixelsPerUnitX == 0f || segmentsMax <= 1) {
+			return this.splineVertexCount;
+		}
+		final float d0x = (pts[p + 0] - 2 * pts[p + 2] + pts[p + 4]) *
+		                  this.pixelsPerUnitX;
+		final float d0y = (pts[p + 1] - 2 * pts[p + 3] + pts[p + 5]) *
+		                  this.pixelsPerUnitY;
+		final float d1x = (pts[p + 2] - 2 * pts[p + 4] + pts[p + 6]) *
+		                  this.pixelsPerUnitX;
+		final float d1y = (pts[p + 3] - 2 * pts[p + 5] + pts[p + 7]) *
+		                  this.pixelsPerUnitY;
+		final float d = (float) Math.sqrt(Math.max(d0x * d0x + d0y * d0y,
+		                                           d1x * d1x + d1y * d1y));
+		final float segments = (float) Math.sqrt(.75f * d /
+		                                         SplineTessellator.TOLERANCE);
+		int count = 1;
+		while (count < segments && count < segmentsMax) {
+			count *= 2;
+		}
+		return Math.min(count, segmentsMax) + 1;
+	}
+
+	/**
+	 * Evaluates one spline between its start and end bounds.
+	 */
+	private void addSpline(float[] pts, int p, float offsetX, float offsetY,
+	                       float widthStart, float widthEnd,
+	                       float start, float end,
+	                       float[] colors, int color) {
+		final int last = this.getVertexCount(pts, p) - 1;
+		final int startIdx = (int) Math.floor(start * last);
+		final int endIdx = (int) Math.ceil(end * last);
+		final int pairs = endIdx - startIdx + 1;
+
+		// Two extra vertices for stitching with the previous spline.
+		this.ensureCapacity(this.vertexCount + pairs * 2 + 2);
+
+		final float x0 = pts[p + 0] - offsetX, y0 = pts[p + 1] - offsetY;
+		final float x1 = pts[p + 2] - offsetX, y1 = pts[p + 3] - offsetY;
+		final float x2 = pts[p + 4] - offsetX, y2 = pts[p + 5] - offsetY;
+		final float x3 = pts[p + 6] - offsetX, y3 = pts[p + 7] - offsetY;
+
+		boolean first = true;
+		for (int i = startIdx; i <= endIdx; ++i) {
+			final float param = (float) i / last;
+			final float t = Math.min(Math.max(param, start), end);
+
+			// de Casteljau evaluation, as the shader used to do.
+			float q0x = x0 + (x1 - x0) * t, q0y = y0 + (y1 - y0) * t;
+			float q1x = x1 + (x2 - x1) * t, q1y = y1 + (y2 - y1) * t;
+			float q2x = x2 + (x3 - x2) * t, q2y = y2 + (y3 - y2) * t;
+			float r0x = q0x + (q1x - q0x) * t, r0y = q0y + (q1y - q0y) * t;
+			float r1x = q1x + (q2x - q1x) * t, r1y = q1y + (q2y - q1y) * t;
+			float x = r0x + (r1x - r0x) * t;
+			float y = r0y + (r1y - r0y) * t;
+
+			float nx = -(r1y - r0y);
+			float ny = r1x - r0x;
+			float len = (float) Math.sqrt(nx * nx + ny * ny);
+			if (len > 0f) {
+				nx /= len;
+				ny /= len;
+			}
+
+			float width = (widthStart + param * (widthEnd - widthStart)) * .5f;
+
+			if (first && this.vertexCount > 0) {
+				// Degenerate triangles: repeat previous vertex and this one.
+				this.repeatVertex(this.vertexCount - 1);
+				this.putVertex(x, y, nx, ny, width, 1f, colors, color);
+			}
+			first = false;
+			this.putVertex(x, y, nx, ny, width, 1f, colors, color);
+			this.putVertex(x, y, nx, ny, width, -1f, colors, color);
+		}
+	}
+
+	private void putVertex(float x, float y, float nx, float ny,
+	                       float width, float side, float[] colors, int color) {
+		final float[] v = this.vertices;
+		int i = this.vertexCount++ * SplineTessellator.VERTEX_FLOATS;
+		v[i++] = x;
+		v[i++] = y;
+		v[i++] = nx;
+		v[i++] = ny;
+		v[i++] = width;
+		v[i++] = side;
+		v[i++] = colors[color + 0];
+		v[i++] = colors[color + 1];
+		v[i++] = colors[color + 2];
+		v[i++] = colors[color + 3];
+	}
+
+	private void repeatVertex(int vertex) {
+		System.arraycopy(this.vertices,
+		                 vertex * SplineTessellator.VERTEX_FLOATS,
+		                 this.vertices,
+		                 this.vertexCount * SplineTessellator.VERTEX_FLOATS,
+		                 SplineTessellator.VERTEX_FLOATS);
+		++this.vertexCount;
+	}
+
+	private void ensureCapacity(int vertexCount) {
+		int floats = vertexCount * SplineTessellator.VERTEX_FLOATS;
+		if (floats > this.vertices.length) {
+			float[] grown = new float[Math.max(floats, this.vertices.length * 2)];
+			System.arraycopy(this.vertices, 0, grown, 0,
+			                 this.vertexCount * SplineTessellator.VERTEX_FLOATS);
+			this.vertices = grown;
+		}
+	}
+
+	/**
+	 * Copies tessellated vertices into a direct buffer ready for upload.
+	 */
+	public FloatBuffer getBuffer() {
+		final int floats = this.vertexCount * SplineTessellator.VERTEX_FLOATS;
+		if (this.buffer.capacity() < floats) {
+			this.buffer = SplineTessellator.allocate(this.vertices.length);
+		}
+		this.buffer.clear();
+		this.buffer.put(this.vertices, 0, floats).position(0);
+		return this.buffer;
+	}
+
+}